@@ -0,0 +1,109 @@
+package org.ihtsdo.snomed.util;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+/**
+ * Produces the same name based (version 5) UUIDs as Type5UuidFactory, but can be shared between threads without
+ * contention. Each thread gets its own SHA-1 digest and byte buffer, the namespace is converted to bytes once, and
+ * names are copied straight into the buffer rather than going through String.getBytes.
+ */
+public class ConcurrentType5UuidFactory {
+
+	private static final int INITIAL_BUFFER_SIZE = 256;
+	private static final int SHA_1_LENGTH = 20;
+	// What the ISO-8859-1 encoder writes for characters it can't represent
+	private static final byte UNMAPPABLE = '?';
+
+	private final byte[] namespaceBytes;
+	private final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(Workspace::new);
+
+	private static class Workspace {
+		private final MessageDigest sha1;
+		private final byte[] digest = new byte[SHA_1_LENGTH];
+		private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+		private Workspace() {
+			try {
+				sha1 = MessageDigest.getInstance(Type5UuidFactory.SHA_1);
+			} catch (NoSuchAlgorithmException e) {
+				// Already checked in the factory's constructor
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	public ConcurrentType5UuidFactory() throws NoSuchAlgorithmException {
+		this(null);
+	}
+
+	/**
+	 * @param namespace included ahead of every name, or null for none
+	 */
+	public ConcurrentType5UuidFactory(UUID namespace) throws NoSuchAlgorithmException {
+		// Fail here rather than on first use in some worker thread
+		MessageDigest.getInstance(Type5UuidFactory.SHA_1);
+		namespaceBytes = namespace == null ? null : toBytes(namespace);
+	}
+
+	public UUID get(String name) {
+		Workspace workspace = workspaces.get();
+		int length = name.length();
+		if (workspace.buffer.length < length) {
+			workspace.buffer = new byte[Math.max(length, workspace.buffer.length * 2)];
+		}
+		byte[] buffer = workspace.buffer;
+		// The encoder writes a single byte per code point, so a surrogate pair becomes one '?', not two
+		int byteCount = 0;
+		for (int i = 0; i < length; ) {
+			int codePoint = Character.codePointAt(name, i);
+			buffer[byteCount++] = codePoint <= 0xff ? (byte) codePoint : UNMAPPABLE;
+			i += Character.charCount(codePoint);
+		}
+
+		MessageDigest sha1 = workspace.sha1;
+		byte[] digest = workspace.digest;
+		sha1.reset();
+		if (namespaceBytes != null) {
+			sha1.update(namespaceBytes);
+		}
+		sha1.update(buffer, 0, byteCount);
+		try {
+			sha1.digest(digest, 0, SHA_1_LENGTH);
+		} catch (DigestException e) {
+			throw new IllegalStateException("Unable to generate UUID for " + name, e);
+		}
+
+		digest[6] &= 0x0f; /* clear version */
+		digest[6] |= 0x50; /* set to version 5 */
+		digest[8] &= 0x3f; /* clear variant */
+		digest[8] |= (byte) 0x80; /* set to IETF variant */
+
+		long msb = 0;
+		long lsb = 0;
+		for (int i = 0; i < 8; i++) {
+			msb = (msb << 8) | (digest[i] & 0xff);
+		}
+		for (int i = 8; i < 16; i++) {
+			lsb = (lsb << 8) | (digest[i] & 0xff);
+		}
+		return new UUID(msb, lsb);
+	}
+
+	/**
+	 * The same bytes as Type5UuidFactory.getRawBytes, taken from the UUID's bits rather than its string form
+	 */
+	static byte[] toBytes(UUID uuid) {
+		byte[] bytes = new byte[16];
+		long msb = uuid.getMostSignificantBits();
+		long lsb = uuid.getLeastSignificantBits();
+		for (int i = 0; i < 8; i++) {
+			bytes[i] = (byte) (msb >>> (56 - i * 8));
+			bytes[i + 8] = (byte) (lsb >>> (56 - i * 8));
+		}
+		return bytes;
+	}
+
+}
@@ -1,23 +1,37 @@
 package org.ihtsdo.snomed.util;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.ihtsdo.snomed.util.rf2.schema.RF2SchemaConstants;
+import org.ihtsdo.util.FileAppenders;
 import org.ihtsdo.util.GlobalUtils;
 
+import com.google.common.base.Stopwatch;
+
+/**
+ * Writes RF2 delta files and packages them as a release archive.
+ * Rows go through FileAppenders, so each file is opened once, on its first row, and held open until createArchive,
+ * rather than being reopened for every row written.
+ */
 public class Rf2ArchiveBuilder implements RF2SchemaConstants {
 	
+	// The files this builder has written to since they were last closed
+	private final Map<RF2_FILE, String> openFiles = new EnumMap<>(RF2_FILE.class);
+	private long rowsWritten = 0;
+	// From the first row written until the files are closed
+	private final Stopwatch writeTime = Stopwatch.createUnstarted();
+
 	String outputDirName = "output";
+	// Where the archive is written, or null for the working directory
+	File archiveDir = null;
 	String effectiveTime;
 	String packageDir;
 	
@@ -83,23 +97,64 @@ public class Rf2ArchiveBuilder implements RF2SchemaConstants {
 	}
 	
 	public void writeToRF2File(RF2_FILE rf2File, String[] columns) throws IOException, SnomedUtilException {
-		File file = ensureFileExists(getFilename(rf2File));
-		try(	OutputStreamWriter osw = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
-				BufferedWriter bw = new BufferedWriter(osw);
-				PrintWriter out = new PrintWriter(bw))
-		{
-			StringBuilder line = new StringBuilder();
-			for (int x=0; x<columns.length; x++) {
-				if (x > 0) {
-					line.append(TSV_FIELD_DELIMITER);
-				}
-				line.append(columns[x]==null?"":columns[x]);
+		if (!writeTime.isRunning()) {
+			writeTime.start();
+		}
+		String fileName = openFiles.get(rf2File);
+		if (fileName == null) {
+			fileName = getFilename(rf2File);
+			openFiles.put(rf2File, fileName);
+		}
+		StringBuilder line = new StringBuilder();
+		for (int x=0; x<columns.length; x++) {
+			if (x > 0) {
+				line.append(TSV_FIELD_DELIMITER);
 			}
-			out.print(line + LINE_DELIMITER);
-		} catch (Exception e) {
-			GlobalUtils.print("Unable to output report rf2 line due to " + e.getMessage());
+			line.append(columns[x]==null?"":columns[x]);
+		}
+		line.append(LINE_DELIMITER);
+		FileAppenders.append(fileName, line.toString());
+		rowsWritten++;
+	}
+
+	/**
+	 * Pushes everything written so far out to the RF2 files, which stay open for further rows.
+	 */
+	public void flush() throws IOException {
+		for (String fileName : openFiles.values()) {
+			FileAppenders.flush(fileName);
 		}
 	}
+
+	private void closeWriters() throws IOException {
+		IOException failure = null;
+		for (String fileName : openFiles.values()) {
+			try {
+				FileAppenders.close(fileName);
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		openFiles.clear();
+		if (writeTime.isRunning()) {
+			writeTime.stop();
+		}
+		try {
+			if (failure != null) {
+				throw failure;
+			}
+			double seconds = Math.max(writeTime.elapsed().toNanos(), 1) / 1e9;
+			GlobalUtils.print("Wrote " + rowsWritten + " rows in " + writeTime + " (" + Math.round(rowsWritten / seconds) + " rows/s)");
+		} finally {
+			// Any files written after this are reopened, and counted, afresh
+			rowsWritten = 0;
+			writeTime.reset();
+		}
+	}
+
+	long getRowsWritten() {
+		return rowsWritten;
+	}
 	
 	protected File ensureFileExists(String fileName) throws IOException {
 		File file = new File(fileName);
@@ -115,12 +170,13 @@ public class Rf2ArchiveBuilder implements RF2SchemaConstants {
 	public void createArchive() throws SnomedUtilException {
 		File dirToZip = new File(outputDirName);
 		try {
+			closeWriters();
 			// The zip filename will be the name of the first thing in the zip location
 			// ie in this case the directory SnomedCT_RF1Release_INT_20150731
-			String zipFileName = dirToZip.listFiles()[0].getName() + ".zip";
+			String zipFileName = new File(archiveDir, dirToZip.listFiles()[0].getName() + ".zip").getPath();
 			int fileNameModifier = 1;
 			while (new File(zipFileName).exists()) {
-				zipFileName = dirToZip.listFiles()[0].getName() + "_" + fileNameModifier++ + ".zip";
+				zipFileName = new File(archiveDir, dirToZip.listFiles()[0].getName() + "_" + fileNameModifier++ + ".zip").getPath();
 			}
 			ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFileName));
 			String rootLocation = dirToZip.getAbsolutePath() + File.separator;
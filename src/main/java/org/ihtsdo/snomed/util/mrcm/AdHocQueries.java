@@ -1,10 +1,7 @@
 package org.ihtsdo.snomed.util.mrcm;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Set;
@@ -15,6 +12,7 @@ import org.ihtsdo.snomed.util.SnomedUtilException;
 import org.ihtsdo.snomed.util.SnomedUtils;
 import org.ihtsdo.snomed.util.pojo.*;
 import org.ihtsdo.snomed.util.rf2.schema.RF2SchemaConstants;
+import org.ihtsdo.util.FileAppenders;
 
 public class AdHocQueries implements RF2SchemaConstants{
 	
@@ -59,11 +57,8 @@ public class AdHocQueries implements RF2SchemaConstants{
 	}
 
 	protected void writeToFile(String line) {
-		try(FileWriter fw = new FileWriter(reportFile, true);
-				BufferedWriter bw = new BufferedWriter(fw);
-				PrintWriter out = new PrintWriter(bw))
-		{
-			out.println(line);
+		try {
+			FileAppenders.append(reportFile.getPath(), line + System.lineSeparator());
 		} catch (Exception e) {
 			println ("Unable to output report line: " + line + " due to " + e.getMessage());
 		}
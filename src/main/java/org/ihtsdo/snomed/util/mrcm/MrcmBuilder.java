@@ -2,15 +2,23 @@ package org.ihtsdo.snomed.util.mrcm;
 
 import java.io.UnsupportedEncodingException;
 import java.text.DecimalFormat;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.math3.stat.StatUtils;
 import org.apache.commons.math3.stat.descriptive.moment.Mean;
@@ -19,11 +27,12 @@ import org.ihtsdo.snomed.util.pojo.Concept;
 import org.ihtsdo.snomed.util.pojo.Description;
 import org.ihtsdo.snomed.util.pojo.GroupShape;
 import org.ihtsdo.snomed.util.pojo.GroupsHash;
+import org.ihtsdo.snomed.util.pojo.HierarchyIndex;
 import org.ihtsdo.snomed.util.pojo.Relationship;
 import org.ihtsdo.snomed.util.pojo.RelationshipGroup;
 import org.ihtsdo.snomed.util.rf2.GraphLoader;
 import org.ihtsdo.snomed.util.rf2.schema.RF2SchemaConstants.CHARACTERISTIC;
-import org.ihtsdo.util.CollectionUtils;
+import org.ihtsdo.util.GrayCodeWalker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,6 +44,11 @@ public class MrcmBuilder implements SnomedConstants {
 	private static final String INDENT_0 = "";
 	private static final String INDENT_1 = "\t";
 	private static final int MAX_MATCH_RELAXATION = 3;
+	// Default upper limit on the combinations of a single group's attributes examined for abstract and partial shapes
+	public static final int DEFAULT_MAX_COMBINATIONS_PER_GROUP = 100000;
+	private static final int MRCM_THREADS = Runtime.getRuntime().availableProcessors();
+	// Siblings are shared out in more chunks than there are threads, so one slow chunk doesn't hold up the rest
+	private static final int CHUNKS_PER_THREAD = 4;
 
 	private enum CROSSOVER_STATUS {
 		NOT_CROSSOVER, TYPE_CROSSOVER, DESTINATION_CROSSOVER
@@ -43,14 +57,49 @@ public class MrcmBuilder implements SnomedConstants {
     public static Long ROOT_SNOMED_CONCEPT_ID = 138875005L;
 
 	private final Logger logger = LoggerFactory.getLogger(GraphLoader.class);
+	// Time spent finding LCAs, totalled across the value ranges determined by determineAllLCAs
+	private Duration lcaTime = Duration.ZERO;
+	// How many threads the parallel modes share the siblings between
+	private final int threads;
+	private int maxCombinationsPerGroup = DEFAULT_MAX_COMBINATIONS_PER_GROUP;
+
+	public MrcmBuilder() {
+		this(MRCM_THREADS);
+	}
+
+	MrcmBuilder(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * @param maxCombinationsPerGroup	how many combinations of a group's attributes to examine for abstract and
+	 * 									partial shapes before moving on to the next group
+	 */
+	public void setMaxCombinationsPerGroup(int maxCombinationsPerGroup) {
+		this.maxCombinationsPerGroup = maxCombinationsPerGroup;
+	}
 
 	public void determineMRCM(Concept c, int depth, DefinitionStatus defStatus, CHARACTERISTIC characteristicType) throws UnsupportedEncodingException {
+		determineMRCM(c, depth, defStatus, characteristicType, false);
+	}
+
+	/**
+	 * @param parallel	if true, the shapes of the siblings are worked out on one thread per processor, each tallying
+	 * 					its own share, and the tallies are merged in sibling order so the popularities (and the
+	 * 					examples each shape samples) are the same as for a sequential run
+	 */
+	public void determineMRCM(Concept c, int depth, DefinitionStatus defStatus, CHARACTERISTIC characteristicType, boolean parallel)
+			throws UnsupportedEncodingException {
 		Set<Concept> siblings = c.getDescendents(depth, DefinitionStatus.ALL);
 		Set<Concept> selectedSiblings = c.getDescendents(depth, defStatus);
 		logger.info("Examining {} {} out of {} children of {} - {}", selectedSiblings.size(), defStatus.name(), siblings.size(),
 				Description.getFormattedConcept(c.getSctId()), characteristicType);
 
-		examineBasicGroupShape(selectedSiblings);
+		if (parallel) {
+			examineBasicGroupShapeInParallel(selectedSiblings);
+		} else {
+			examineBasicGroupShape(selectedSiblings);
+		}
 
 		// examineAbstractShape(definedSiblings);
 
@@ -59,15 +108,55 @@ public class MrcmBuilder implements SnomedConstants {
 		// examinePartialGroupAbstractShapes(definedSiblings);
 	}
 
+	/**
+	 * Runs determineMRCM sequentially and then in parallel, from zero popularities each time, and reports how long
+	 * each took and whether they agreed.
+	 */
+	public void compareMRCMModes(String sctid, CHARACTERISTIC characteristicType, int depth, DefinitionStatus definitionStatus)
+			throws UnsupportedEncodingException {
+		Concept c = getConcept(sctid, characteristicType);
+		if (c == null) {
+			return;
+		}
+		resetPopularities();
+		Stopwatch sequentialTime = Stopwatch.createStarted();
+		determineMRCM(c, depth, definitionStatus, characteristicType, false);
+		sequentialTime.stop();
+		Map<Long, Integer> sequentialShapes = GroupShape.getPopularities();
+		Map<String, Integer> sequentialHashes = GroupsHash.getPopularities();
+
+		resetPopularities();
+		Stopwatch parallelTime = Stopwatch.createStarted();
+		determineMRCM(c, depth, definitionStatus, characteristicType, true);
+		parallelTime.stop();
+		boolean resultsMatch = sequentialShapes.equals(GroupShape.getPopularities()) && sequentialHashes.equals(GroupsHash.getPopularities());
+
+		double speedup = (double) sequentialTime.elapsed().toNanos() / Math.max(1, parallelTime.elapsed().toNanos());
+		logger.info("MRCM for {}: sequential {}, parallel on {} threads {}, speedup {}x. Results {}",
+				Description.getFormattedConcept(c.getSctId()), sequentialTime, threads, parallelTime,
+				new DecimalFormat("#.##").format(speedup), resultsMatch ? "match" : "DIFFER");
+	}
+
+	private void resetPopularities() {
+		GroupShape.resetPopularities();
+		GroupsHash.resetPopularities();
+	}
+
 	private void examineBasicGroupShape(Set<Concept> definedSiblings) throws UnsupportedEncodingException {
 
 		for (Concept sibling : definedSiblings) {
 			List<RelationshipGroup> groups = sibling.getGroups();
+			// Every group counts towards its shape's popularity, but the sibling is only an example of each shape once
+			Set<GroupShape> siblingShapes = new HashSet<>();
 			for (RelationshipGroup g : groups) {
 				// Is this a really empty group because of non-contiguous group numbers?
 				GroupShape groupShape = g.getGroupBasicShape();
 				// logger.info("{}:{} - {} ", sibling.getSctId(), g.getNumber(), groupShape);
-				groupShape.incrementPopularity(sibling);
+				if (siblingShapes.add(groupShape)) {
+					groupShape.incrementPopularity(sibling);
+				} else {
+					groupShape.incrementPopularity();
+				}
 			}
 			GroupsHash groupsHash = sibling.getGroupsShapeHash();
 			// logger.info("  Groups Shape Hash: {}", groupsHash);
@@ -84,33 +173,108 @@ public class MrcmBuilder implements SnomedConstants {
 
 	}
 
+	/**
+	 * What one worker found for its share of the siblings. The workers work out and look up each sibling's group
+	 * shapes and groups hash themselves, leaving only the counts (and the examples, in sibling order) to be added
+	 * when the tallies are merged.
+	 */
+	private static class BasicShapeTally {
+		// Every sibling (once per group, so repeats are together) with each shape
+		final Map<GroupShape, List<Concept>> siblingsByShape = new LinkedHashMap<>();
+		final Map<GroupsHash, List<Concept>> siblingsByGroupsHash = new LinkedHashMap<>();
+	}
+
+	private void examineBasicGroupShapeInParallel(Set<Concept> definedSiblings) throws UnsupportedEncodingException {
+		List<BasicShapeTally> tallies = runInParallel(definedSiblings, chunk -> {
+			BasicShapeTally tally = new BasicShapeTally();
+			for (Concept sibling : chunk) {
+				for (RelationshipGroup g : sibling.getGroups()) {
+					tally.siblingsByShape.computeIfAbsent(g.getGroupBasicShape(), k -> new ArrayList<>()).add(sibling);
+				}
+				tally.siblingsByGroupsHash.computeIfAbsent(sibling.getGroupsShapeHash(), k -> new ArrayList<>()).add(sibling);
+			}
+			return tally;
+		});
+
+		for (BasicShapeTally tally : tallies) {
+			for (Map.Entry<GroupShape, List<Concept>> shapeSiblings : tally.siblingsByShape.entrySet()) {
+				shapeSiblings.getKey().incrementPopularity(shapeSiblings.getValue());
+			}
+			for (Map.Entry<GroupsHash, List<Concept>> hashSiblings : tally.siblingsByGroupsHash.entrySet()) {
+				hashSiblings.getKey().incrementPopularity(hashSiblings.getValue());
+			}
+		}
+
+		logger.info("*****************\nGroups Hash Popularity:");
+		GroupsHash.print();
+	}
+
+	private interface ChunkWorker<T> {
+		T process(List<Concept> chunk) throws Exception;
+	}
+
+	/**
+	 * Splits the siblings into contiguous chunks, in the order the set iterates, and returns each chunk's result
+	 * in that same order.
+	 */
+	private <T> List<T> runInParallel(Set<Concept> siblings, ChunkWorker<T> worker) throws UnsupportedEncodingException {
+		List<Concept> siblingList = new ArrayList<>(siblings);
+		int chunkSize = Math.max(1, (siblingList.size() + threads * CHUNKS_PER_THREAD - 1) / (threads * CHUNKS_PER_THREAD));
+		List<Callable<T>> tasks = new ArrayList<>();
+		for (int start = 0; start < siblingList.size(); start += chunkSize) {
+			List<Concept> chunk = siblingList.subList(start, Math.min(start + chunkSize, siblingList.size()));
+			tasks.add(() -> worker.process(chunk));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<T> results = new ArrayList<>(tasks.size());
+			for (Future<T> task : executor.invokeAll(tasks)) {
+				results.add(task.get());
+			}
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while determining MRCM", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof UnsupportedEncodingException cause) {
+				throw cause;
+			}
+			throw new IllegalStateException("Failed to determine MRCM", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
 	private void examineAbstractShape(Set<Concept> definedSiblings) throws UnsupportedEncodingException {
 		// Now loop through groups again and see if we can find a better shape by working
 		// with the abstract types (ie the parent of the type)
 		// Calculate a new popularity Map
 		GroupShape.resetPopularities();
+		int groupsCutShort = 0;
 
 		for (Concept sibling : definedSiblings) {
 			List<RelationshipGroup> groups = sibling.getGroups();
 			for (RelationshipGroup g : groups) {
-				String preferredShapeId = g.getGroupBasicShape().getId();
+				long preferredShapeId = g.getGroupBasicShape().getId();
 				Set<Integer> preferredAbstractCombination = null;
 				// Loop through all the combinations of attributes to express as type ancestors
-				Set<Set<Integer>> allCombinations = CollectionUtils.getIndexCombinations(g.size());
-				for (Set<Integer> thisCombination : allCombinations) {
-					// Skip the empty set ie no abstractions
-					if (thisCombination.size() == 0) {
-						continue;
-					}
-					String groupAbstractShape = g.getGroupAbstractShape(thisCombination);
-					// If ANY sibling already uses the more abstract model, then that's preferable to have in common
+				GrayCodeWalker walker = g.getAbstractShapeWalker();
+				// The first combination is the basic shape ie no abstractions
+				walker.next();
+				while (nextWithinBudget(walker)) {
+					long groupAbstractShape = RelationshipGroup.getAbstractShape(walker);
+					// If ANY sibling already uses the more abstract model, then that's preferable to have in common.
+					// Where several are known, the last one reached in Gray code order is kept, so the order and the
+					// budget decide which of them is chosen.
 					if (GroupShape.isKnown(groupAbstractShape)) {
-						logger.info("Abstract Group Shape better for {}: {} (was {})", sibling.getSctId(), groupAbstractShape,
+						logger.info("Abstract Group Shape better for {}: {} (was {})", sibling.getSctId(), GroupShape.get(groupAbstractShape),
 								g.getGroupBasicShape());
 						preferredShapeId = groupAbstractShape;
-						preferredAbstractCombination = thisCombination;
+						preferredAbstractCombination = walker.getPositionsInState(1); // those using the parent type
 					}
 				}
+				groupsCutShort += isCutShort(walker) ? 1 : 0;
 				// Also put the original shape (which might remain zero popular) so we can compare it later
 				GroupShape.registerShape(g.getGroupBasicShape().getId());
 				GroupShape preferredShape = GroupShape.get(preferredShapeId);
@@ -119,6 +283,7 @@ public class MrcmBuilder implements SnomedConstants {
 				g.setMostPopularShape(preferredShape);
 			}
 		}
+		reportCutShort(groupsCutShort);
 		
 		logger.info("Shape Popularity after considering Abstract Shape:");
 		GroupShape.print();
@@ -128,74 +293,100 @@ public class MrcmBuilder implements SnomedConstants {
 	private void examinePartialGroupMatch(Set<Concept> definedSiblings) throws UnsupportedEncodingException {
 		// Now loop through groups again and see if we can find a more popular shape by working
 		// with partial group matches
+		int groupsCutShort = 0;
 		for (Concept sibling : definedSiblings) {
 			List<RelationshipGroup> groups = sibling.getGroups();
 			for (RelationshipGroup g : groups) {
 				// Loop through all the combinations of attributes
-				Set<Set<Integer>> allCombinations = CollectionUtils.getIndexCombinations(g.size());
-				for (Set<Integer> thisCombination : allCombinations) {
+				GrayCodeWalker walker = g.getPartialShapeWalker();
+				while (nextWithinBudget(walker)) {
+					long groupPartialShape = RelationshipGroup.getPartialShape(walker);
 					// Skip the empty set ie no attributes in group
-					if (thisCombination.size() == 0) {
+					if (groupPartialShape == GroupShape.EMPTY_SHAPE) {
 						continue;
 					}
-					String groupPartialShape = g.getGroupPartialShape(thisCombination);
 					// If ANY sibling already uses the more abstract model, then that's preferable to have in common
 					if (GroupShape.isKnown(groupPartialShape)
 							&& GroupShape.get(groupPartialShape).getPopularity() > g.getGroupBasicShape().getPopularity()) {
-						logger.info("Partial Group Shape more popular for {}: {} (was {})", sibling.getSctId(), groupPartialShape,
+						logger.info("Partial Group Shape more popular for {}: {} (was {})", sibling.getSctId(), GroupShape.get(groupPartialShape),
 								g.getGroupBasicShape());
 					}
 				}
+				groupsCutShort += isCutShort(walker) ? 1 : 0;
 			}
 		}
+		reportCutShort(groupsCutShort);
 
 	}
 
 	private void examinePartialGroupAbstractShapes(Set<Concept> definedSiblings)
 			throws UnsupportedEncodingException {
+		int groupsCutShort = 0;
 		for (Concept sibling : definedSiblings) {
 			List<RelationshipGroup> groups = sibling.getGroups();
 			for (RelationshipGroup g : groups) {
-				// Loop through all the combinations of attributes
-				Set<Set<Integer>> allAttributeCombinations = CollectionUtils.getIndexCombinations(g.size());
-				for (Set<Integer> thisAttributeCombination : allAttributeCombinations) {
-					// Skip the empty set ie no attributes in group
-					if (thisAttributeCombination.size() == 0) {
+				// Work through every combination of leaving each attribute out, keeping its type, or using the more
+				// abstract relationship type - all in one walk rather than a power set within a power set
+				GrayCodeWalker walker = g.getPartialAbstractShapeWalker();
+				while (nextWithinBudget(walker)) {
+					// Skip combinations with no attributes replaced with more abstract types (which includes the empty set)
+					if (walker.countInState(RelationshipGroup.ATTRIBUTE_PARENT_TYPE) == 0) {
 						continue;
 					}
-
-					// And also work through all combinations of using the more abstract relationship type
-					Set<Set<Integer>> allAbstractCombinations = Sets.powerSet(thisAttributeCombination);
-					for (Set<Integer> thisAbstractCombination : allAbstractCombinations) {
-						// Skip the empty set ie no attributes replaced with more abstract types
-						if (thisAbstractCombination.size() == 0) {
-							continue;
-						}
-						String groupPartialAbstractShape = g
-								.getGroupPartialAbstractShape(thisAttributeCombination, thisAbstractCombination);
-						// If ANY sibling already uses the more abstract model, then that's preferable to have in common
-						if (GroupShape.isKnown(groupPartialAbstractShape)
-								&& GroupShape.get(groupPartialAbstractShape).getPopularity() > g.getGroupBasicShape().getPopularity()) {
-							logger.info("Partial Group Abstract Shape more popular for {}: {} (was {})", sibling.getSctId(),
-									groupPartialAbstractShape, g.getGroupBasicShape());
-						}
+					long groupPartialAbstractShape = RelationshipGroup.getPartialShape(walker);
+					// If ANY sibling already uses the more abstract model, then that's preferable to have in common
+					if (GroupShape.isKnown(groupPartialAbstractShape)
+							&& GroupShape.get(groupPartialAbstractShape).getPopularity() > g.getGroupBasicShape().getPopularity()) {
+						logger.info("Partial Group Abstract Shape more popular for {}: {} (was {})", sibling.getSctId(),
+								GroupShape.get(groupPartialAbstractShape), g.getGroupBasicShape());
 					}
 				}
+				groupsCutShort += isCutShort(walker) ? 1 : 0;
 			}
 		}
+		reportCutShort(groupsCutShort);
+	}
+
+	/**
+	 * Steps the walker on to its next combination, unless it has already visited as many as the budget allows
+	 */
+	boolean nextWithinBudget(GrayCodeWalker walker) {
+		return walker.getVisited() < maxCombinationsPerGroup && walker.next();
+	}
+
+	static boolean isCutShort(GrayCodeWalker walker) {
+		return walker.getVisited() < walker.getCombinations();
+	}
+
+	private void reportCutShort(int groupsCutShort) {
+		if (groupsCutShort > 0) {
+			logger.warn("{} groups have more than {} attribute combinations, only the first {} were examined", groupsCutShort,
+					maxCombinationsPerGroup, maxCombinationsPerGroup);
+		}
 	}
 
 	public void determineMRCM(String sctid, CHARACTERISTIC characteristicType, int depth, DefinitionStatus definitionStatus)
 			throws UnsupportedEncodingException {
+		determineMRCM(sctid, characteristicType, depth, definitionStatus, false);
+	}
+
+	public void determineMRCM(String sctid, CHARACTERISTIC characteristicType, int depth, DefinitionStatus definitionStatus,
+			boolean parallel) throws UnsupportedEncodingException {
+		Concept c = getConcept(sctid, characteristicType);
+		if (c != null) {
+			determineMRCM(c, depth, definitionStatus, characteristicType, parallel);
+		}
+	}
+
+	private Concept getConcept(String sctid, CHARACTERISTIC characteristicType) {
 		Long conceptToExamine;
 		try {
 			conceptToExamine = Long.valueOf(sctid);
 		} catch (NumberFormatException e) {
 			print("Unable to parse SCTID  from '" + sctid + "' due to " + e.getMessage(), "");
-			return;
+			return null;
 		}
-		Concept c = Concept.getConcept(conceptToExamine, characteristicType);
-		determineMRCM(c, depth, definitionStatus, characteristicType);
+		return Concept.getConcept(conceptToExamine, characteristicType);
 	}
 
 	public void displayShape(String sctid, CHARACTERISTIC hierarchyToExamine) {
@@ -246,7 +437,12 @@ public class MrcmBuilder implements SnomedConstants {
 			}
 		}
 
-		Concept commonAncestor = findCommonAncestor(allDestinations);
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		Concept commonAncestor = findCommonAncestor(allDestinations, hierarchyToExamine);
+		lcaTime = lcaTime.plus(stopwatch.elapsed());
+		if (verbose) {
+			logger.info("LCA of {} values found in {}", allDestinations.size(), stopwatch);
+		}
 		if (commonAncestor != null) {
 			logger.info("{} values LCA: {}", Description.getFormattedConcept(targetRelationshipType.getSctId()),
 					Description.getFormattedConcept(commonAncestor.getSctId()));
@@ -255,31 +451,12 @@ public class MrcmBuilder implements SnomedConstants {
 		}
 	}
 
-	private Concept findCommonAncestor(Set<Concept> concepts) {
+	private Concept findCommonAncestor(Set<Concept> concepts, CHARACTERISTIC characteristic) {
 		// We must have at least two concepts to search for common ancestor
 		if (concepts.size() < 2) {
 			return null;
 		}
-		Set<Concept> allCommonAncestors = null; // We'll remove not-common ancestors from first result set
-		for (Concept thisConcept : concepts) {
-			if (allCommonAncestors == null) {
-				allCommonAncestors = thisConcept.getAncestorsAndSelf(Concept.DEPTH_NOT_SET);
-			} else {
-				allCommonAncestors.retainAll(thisConcept.getAncestorsAndSelf(Concept.DEPTH_NOT_SET));
-			}
-			if (allCommonAncestors.size() == 0) {
-				return null;
-			}
-		}
-
-		// Now find the common ancestor that has the greatest depth
-		Concept deepestAncestor = null;
-		for (Concept thisCommonAncestor : allCommonAncestors) {
-			if (deepestAncestor == null || thisCommonAncestor.getDepth() > deepestAncestor.getDepth()) {
-				deepestAncestor = thisCommonAncestor;
-			}
-		}
-		return deepestAncestor;
+		return HierarchyIndex.get(characteristic).getDeepestCommonAncestor(concepts);
 	}
 
 	private void populateAllDestinations(Set<Concept> allDestinations, Concept parent, Concept targetRelationshipType) {
@@ -303,9 +480,13 @@ public class MrcmBuilder implements SnomedConstants {
 		populateAllAttributeTypes(hierarchyStart, allAttributeTypes);
 
 		// Now work through these attributes and report just the LCA for the attribute range
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		lcaTime = Duration.ZERO;
 		for (Concept thisAttributeType : allAttributeTypes) {
 			determineValueRange(thisAttributeType.getSctId().toString(), hierarchySCTID, hierarchyToExamine, false);
 		}
+		logger.info("Determined value ranges of {} attribute types in {}, of which {} ms finding LCAs", allAttributeTypes.size(), stopwatch,
+				lcaTime.toMillis());
 	}
 
 	private void populateAllAttributeTypes(Concept parent, Set<Concept> allAttributeTypes) {
@@ -323,7 +504,7 @@ public class MrcmBuilder implements SnomedConstants {
 		int count = 0;
 		Stopwatch stopwatch = Stopwatch.createStarted();
 		for (Concept thisConcept : Concept.getAllConcepts(hierarchyToExamine)) {
-			Concept lcaParent = findCommonAncestor(thisConcept.getParents());
+			Concept lcaParent = findCommonAncestor(thisConcept.getParents(), hierarchyToExamine);
 			if (lcaParent != null && lcaParent.getSctId().equals(ROOT_SNOMED_CONCEPT_ID)) {
 				print(Description.getFormattedConcept(thisConcept.getSctId()), "");
 				for (Concept p : thisConcept.getParents()) {
@@ -517,8 +698,7 @@ public class MrcmBuilder implements SnomedConstants {
 				// If this attribute type is an ancestor of the parent type, then we have a crossover
 				if (thisParentsAttribute.getType().equals(thisAttribute.getType())) {
 					// but if it's the same, then check if the destination is an ancestor.
-					if (thisParentsAttribute.getDestinationConcept().getAncestors(Concept.DEPTH_NOT_SET)
-							.contains(thisAttribute.getDestinationConcept())) {
+					if (thisParentsAttribute.getDestinationConcept().isDescendantOf(thisAttribute.getDestinationConcept())) {
 						status = CROSSOVER_STATUS.DESTINATION_CROSSOVER;
 						errorReport += (Description.getFormattedConcept(thisConcept.getSctId()) + " group " + groupId + " - " + status);
 						errorReport += ("\n\tParent: " + Description.getFormattedConcept(thisParent.getSctId()) + " group " + parentGroupId);
@@ -528,7 +708,7 @@ public class MrcmBuilder implements SnomedConstants {
 						errorReport += ("\n\tMore specific parent's destination " + Description.getFormattedConcept(thisParentsAttribute
 								.getDestinationConcept().getSctId()));
 					}
-				} else if (thisParentsAttribute.getType().getAncestors(Concept.DEPTH_NOT_SET).contains(thisAttribute.getType())) {
+				} else if (thisParentsAttribute.getType().isDescendantOf(thisAttribute.getType())) {
 					// OR is it the case that this type is actually coming from one of the other parents?
 
 					for (Concept parent : thisConcept.getParents()) {
@@ -741,7 +921,7 @@ public class MrcmBuilder implements SnomedConstants {
 
 	private int findDuplicateTypes(RelationshipGroup thisGroup, String whiteList, boolean includeDescendants,
 			Map<String, Map<String, Integer>> duplicateTypeBag, Long typeId) {
-		//For every attribute, see if there's another attribute in this group with the same (or parent) type,
+		//For every attribute, see if there's another attribute in this group with the same (or ancestor) type,
 		//but (to prevent matching to self) a different value
 		for (Relationship thisAttribute : thisGroup.getAttributes()) {
 			if (whiteList.contains(thisAttribute.getTypeId().toString()) || (typeId != null && !thisAttribute.getTypeId().equals(typeId))) {
@@ -749,7 +929,7 @@ public class MrcmBuilder implements SnomedConstants {
 			}
 			for (Relationship comparisonAttribute : thisGroup.getAttributes()) {
 				if (thisAttribute.getTypeId().equals(comparisonAttribute.getTypeId()) || (
-						includeDescendants && thisAttribute.getType().getParents().contains(comparisonAttribute.getType()))){
+						includeDescendants && thisAttribute.getType().isDescendantOf(comparisonAttribute.getType()))){
 					if (!thisAttribute.getDestinationId().equals(comparisonAttribute.getDestinationId())) {
 						print ("Found duplicate attribute types in concept: " + Description.getFormattedConcept(thisAttribute.getSourceId()),"");
 						print(thisAttribute.toPrettyString(), "");
@@ -1,5 +1,6 @@
 package org.ihtsdo.snomed.util.mrcm;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Scanner;
 
@@ -8,6 +9,7 @@ import org.ihtsdo.snomed.util.mrcm.SnomedConstants.DefinitionStatus;
 import org.ihtsdo.snomed.util.pojo.Concept;
 import org.ihtsdo.snomed.util.qa.PatternCollator;
 import org.ihtsdo.snomed.util.rf2.GraphLoader;
+import org.ihtsdo.snomed.util.rf2.Rf2Archive;
 import org.ihtsdo.snomed.util.rf2.schema.RF2SchemaConstants.CHARACTERISTIC;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,22 +26,41 @@ public class MrcmInteractiveMenu {
 
 	private static void doHelp() {
 		LOGGER.info("Usage: <concept file location> <stated relationship file location> <inferred realtionship file location> <description file location>");
+		LOGGER.info("   or: <release zip location> [Snapshot|Delta]");
 		System.exit(-1);
 	}
 
 	public static void main(String[] args) throws Exception {
-		if (args.length < 3) {
+		boolean loadFromArchive = args.length > 0 && Rf2Archive.isArchive(args[0]);
+		if (!loadFromArchive && args.length < 4) {
 			doHelp();
 		}
 		reportMemory();
-		GraphLoader g = new GraphLoader(args[0], args[1], args[2], args[3]);
 		printn("Load full RF2 line items (for Delta Generation)? Y/N: [N] ");
 		boolean loadRF2Items = in.nextLine().trim().equalsIgnoreCase("Y");
-		g.loadRelationships(loadRF2Items);
+		printn("Load files in parallel? Y/N: [N] ");
+		boolean loadInParallel = in.nextLine().trim().equalsIgnoreCase("Y");
+		printn("Graph cache file (blank for none): ");
+		String cacheFilePath = in.nextLine().trim();
+		if (loadFromArchive) {
+			String releaseType = args.length > 1 ? args[1] : Rf2Archive.SNAPSHOT;
+			try (Rf2Archive archive = new Rf2Archive(args[0])) {
+				loadGraph(new GraphLoader(archive, releaseType), cacheFilePath, loadRF2Items, loadInParallel);
+			}
+		} else {
+			loadGraph(new GraphLoader(args[0], args[1], args[2], args[3]), cacheFilePath, loadRF2Items, loadInParallel);
+		}
 		reportMemory();
 		new MrcmInteractiveMenu().start();
 	}
 
+	private static void loadGraph(GraphLoader g, String cacheFilePath, boolean loadRF2Items, boolean loadInParallel) throws Exception {
+		if (!cacheFilePath.isEmpty()) {
+			g.setCacheFile(new File(cacheFilePath));
+		}
+		g.loadRelationships(loadRF2Items, loadInParallel);
+	}
+
 	public void start() throws Exception {
 
 		while (true) {
@@ -63,7 +84,19 @@ public class MrcmInteractiveMenu {
 					String sctid = in.nextLine().trim();
 					printn("[F]ully Defined, [P]rimitive or [A]ll concepts?? F/P/A: ");
 					DefinitionStatus definitionStatus = DefinitionStatus.getStatus(in.nextLine().trim());
-					new MrcmBuilder().determineMRCM(sctid, currentView, Concept.DEPTH_NOT_SET, definitionStatus);
+					printn("[S]equential, [P]arallel or [C]ompare the two? S/P/C: ");
+					String mode = in.nextLine().trim();
+					printn("Maximum attribute combinations to examine per group: [" + MrcmBuilder.DEFAULT_MAX_COMBINATIONS_PER_GROUP + "] ");
+					String maxCombinationsStr = in.nextLine().trim();
+					MrcmBuilder mrcmBuilder = new MrcmBuilder();
+					if (!maxCombinationsStr.isEmpty()) {
+						mrcmBuilder.setMaxCombinationsPerGroup(Integer.parseInt(maxCombinationsStr));
+					}
+					if (mode.equalsIgnoreCase("C")) {
+						mrcmBuilder.compareMRCMModes(sctid, currentView, Concept.DEPTH_NOT_SET, definitionStatus);
+					} else {
+						mrcmBuilder.determineMRCM(sctid, currentView, Concept.DEPTH_NOT_SET, definitionStatus, mode.equalsIgnoreCase("P"));
+					}
 					break;
 				case "e":
 					EquivalencyChecker.detectEquivalencies();
@@ -1,6 +1,5 @@
 package org.ihtsdo.snomed.util.pojo;
 
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -12,11 +11,16 @@ import java.util.TreeSet;
 
 import org.ihtsdo.snomed.util.mrcm.SnomedConstants.DefinitionStatus;
 import org.ihtsdo.snomed.util.rf2.schema.RF2SchemaConstants;
+import org.ihtsdo.util.LongObjectMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class Concept implements Comparable<Concept>, RF2SchemaConstants {
 
-	private static final Map<Long, Concept> allStatedConcepts = new HashMap<>();
-	private static final Map<Long, Concept> allInferredConcepts = new HashMap<>();
+	private static final Logger LOGGER = LoggerFactory.getLogger(Concept.class);
+
+	private static final LongObjectMap<Concept> allStatedConcepts = new LongObjectMap<>();
+	private static final LongObjectMap<Concept> allInferredConcepts = new LongObjectMap<>();
 	private static final Map<Long, Boolean> fullyDefinedMap = new HashMap<>();
 
 	private final Long sctId;
@@ -27,43 +31,68 @@ public class Concept implements Comparable<Concept>, RF2SchemaConstants {
 	private GroupsHash groupsHash = null;
 	public static final int DEPTH_NOT_SET = -1;
 	public static final int IMMEDIATE_CHILDREN_ONLY = 1;
-	private int depth = DEPTH_NOT_SET;
+	// Which registry (stated or inferred) this concept belongs to, and so which HierarchyIndex describes it
+	private CHARACTERISTIC characteristic;
+	// Position in the topological order of the current HierarchyIndex
+	private int ordinal;
 
 	public Concept(Long id) {
 		this.sctId = id;
 	}
 
+	private static LongObjectMap<Concept> getConceptMap(CHARACTERISTIC characteristic) {
+		return characteristic.equals(Relationship.CHARACTERISTIC.STATED) ? allStatedConcepts : allInferredConcepts;
+	}
+
 	public static Concept getConcept(long sctId, CHARACTERISTIC characteristic) {
-		Map<Long, Concept> allConcepts = characteristic.equals(Relationship.CHARACTERISTIC.STATED) ? allStatedConcepts
-				: allInferredConcepts;
-		return allConcepts.get(sctId);
+		return getConceptMap(characteristic).get(sctId);
 	}
 
 	public static Concept registerConcept(String sctIdStr, CHARACTERISTIC characteristic) {
-		Map<Long, Concept> allConcepts = characteristic.equals(Relationship.CHARACTERISTIC.STATED) ? allStatedConcepts
-				: allInferredConcepts;
-		Long sctId = Long.valueOf(sctIdStr);
+		LongObjectMap<Concept> allConcepts = getConceptMap(characteristic);
+		long sctId = Long.parseLong(sctIdStr);
 		// Do we know about this concept?
-		Concept concept;
-		if (!allConcepts.containsKey(sctId)) {
+		Concept concept = allConcepts.get(sctId);
+		if (concept == null) {
 			concept = new Concept(sctId);
+			concept.characteristic = characteristic;
 			if (fullyDefinedMap.containsKey(sctId) && fullyDefinedMap.get(sctId).equals(Boolean.TRUE)) {
 				concept.setFullyDefined(true);
 			}
 			allConcepts.put(sctId, concept);
-		} else {
-			concept = allConcepts.get(sctId);
+			// The new concept has no place in any existing index
+			HierarchyIndex.invalidate(characteristic);
 		}
 		return concept;
 	}
 
+	/**
+	 * Adds a concept that has been built elsewhere (eg restored from a GraphCache) to the registry
+	 */
+	static void registerConcept(Concept concept, CHARACTERISTIC characteristic) {
+		concept.characteristic = characteristic;
+		getConceptMap(characteristic).put(concept.sctId, concept);
+		HierarchyIndex.invalidate(characteristic);
+	}
+
+	static Set<Long> getFullyDefinedIds() {
+		return fullyDefinedMap.keySet();
+	}
+
 	public static Collection<Concept> getAllConcepts(CHARACTERISTIC characteristic) {
-		Map<Long, Concept> allConcepts = characteristic.equals(Relationship.CHARACTERISTIC.STATED) ? allStatedConcepts
-				: allInferredConcepts;
-		return allConcepts.values();
+		return getConceptMap(characteristic).values();
 	}
 
-	private void setFullyDefined(boolean b) {
+	/**
+	 * Log the memory taken by the stated and inferred concept registries.
+	 */
+	public static void reportMemoryUsage() {
+		for (CHARACTERISTIC characteristic : new CHARACTERISTIC[] { CHARACTERISTIC.STATED, CHARACTERISTIC.INFERRED }) {
+			LOGGER.info(getConceptMap(characteristic).describeMemory(characteristic + " concept registry"));
+		}
+	}
+
+	void setFullyDefined(boolean b) {
 		this.isFullyDefined = b;
 	}
 
@@ -80,9 +109,7 @@ public class Concept implements Comparable<Concept>, RF2SchemaConstants {
 
 		// Is this an IS A relationship? Add as a parent if so
 		if (r.isISA()) {
-			parents.add(r.getDestinationConcept());
-			// And tell that parent that it has a child
-			r.getDestinationConcept().children.add(this);
+			addParent(r.getDestinationConcept());
 		} else {
 			// Resize groups if required
 			for (int x = groups.size(); x <= r.getGroup(); x++) {
@@ -92,6 +119,16 @@ public class Concept implements Comparable<Concept>, RF2SchemaConstants {
 		}
 	}
 
+	void addParent(Concept parent) {
+		parents.add(parent);
+		// And tell that parent that it has a child
+		parent.children.add(this);
+		// Any existing transitive closure no longer reflects the hierarchy
+		if (characteristic != null) {
+			HierarchyIndex.invalidate(characteristic);
+		}
+	}
+
 	@Override
 	public int compareTo(Concept other) {
 		return this.sctId.compareTo(other.sctId);
@@ -110,10 +147,19 @@ public class Concept implements Comparable<Concept>, RF2SchemaConstants {
 	}
 
 	public Set<Concept> getDescendents(int depth, boolean fullyDefinedOnly) {
-		return populateDescendents(new HashSet<>(), fullyDefinedOnly?DefinitionStatus.FULLY_DEFINED:DefinitionStatus.ALL, depth);
+		return getDescendents(depth, fullyDefinedOnly?DefinitionStatus.FULLY_DEFINED:DefinitionStatus.ALL);
 	}
 	
 	public Set<Concept> getDescendents(int depth, DefinitionStatus defStatus) {
+		// All descendants can be read straight from the hierarchy index, only limited depths need to walk the children
+		if (depth == DEPTH_NOT_SET && characteristic != null) {
+			Set<Concept> allDescendents = HierarchyIndex.get(characteristic).getDescendants(this);
+			if (!defStatus.equals(DefinitionStatus.ALL)) {
+				boolean fullyDefined = defStatus.equals(DefinitionStatus.FULLY_DEFINED);
+				allDescendents.removeIf(c -> c.isFullyDefined != fullyDefined);
+			}
+			return allDescendents;
+		}
 		return populateDescendents(new HashSet<>(), defStatus, depth);
 	}
 
@@ -141,15 +187,14 @@ public class Concept implements Comparable<Concept>, RF2SchemaConstants {
 	}
 
 	/**
-	 * @return the sum of the hashes of the groupTypesUUIDs this should uniquely identify a model shape for a concept
-	 * @throws UnsupportedEncodingException
+	 * @return the sum of the signatures of the group shapes, which should uniquely identify a model shape for a concept
 	 */
-	public GroupsHash getGroupsShapeHash() throws UnsupportedEncodingException {
+	public GroupsHash getGroupsShapeHash() {
 		if (groupsHash == null) {
 			long groupsHashLong = 0L;
 			Set<GroupShape> contributingGroups = new HashSet<>();
 			for (RelationshipGroup g : groups) {
-				groupsHashLong += g.getGroupBasicShape().hashCode();
+				groupsHashLong += g.getGroupBasicShape().getId();
 				contributingGroups.add(g.getGroupBasicShape());
 			}
 			groupsHash = GroupsHash.get(Long.toString(Math.abs(groupsHashLong)));
@@ -182,16 +227,23 @@ public class Concept implements Comparable<Concept>, RF2SchemaConstants {
 		return allAttributes;
 	}
 
-	public int getDepth() {
-		return depth;
+	CHARACTERISTIC getCharacteristic() {
+		return characteristic;
 	}
 
-	public void setDepth(int depth) {
-		// We'll maintain the shortest possible path, so don't allow
-		// depth to increase
-		if (this.depth == DEPTH_NOT_SET || depth < this.depth) {
-			this.depth = depth;
-		}
+	int getOrdinal() {
+		return ordinal;
+	}
+
+	void setOrdinal(int ordinal) {
+		this.ordinal = ordinal;
+	}
+
+	/**
+	 * @return the shortest path depth below the SNOMED root, or DEPTH_NOT_SET if the concept is not below the root
+	 */
+	public int getDepth() {
+		return characteristic == null ? DEPTH_NOT_SET : HierarchyIndex.get(characteristic).getDepth(this);
 	}
 
 	private void populateAllAncestors(Set<Concept> ancestors, int depth) {
@@ -205,11 +257,32 @@ public class Concept implements Comparable<Concept>, RF2SchemaConstants {
 	}
 
 	public Set<Concept> getAncestors(int depth) {
+		if (depth == DEPTH_NOT_SET && characteristic != null) {
+			return HierarchyIndex.get(characteristic).getAncestors(this);
+		}
 		Set<Concept> allAncestorsAndSelf = new HashSet<>();
 		this.populateAllAncestors(allAncestorsAndSelf, depth);
 		return allAncestorsAndSelf;
 	}
 
+	/**
+	 * Subsumption test answered from the hierarchy index, so no sets of ancestors are built to answer it
+	 * @return true if this concept is a (strict) descendant of the concept with the given id
+	 */
+	public boolean isDescendantOf(long ancestorId) {
+		return characteristic != null && isDescendantOf(getConcept(ancestorId, characteristic));
+	}
+
+	public boolean isDescendantOf(Concept ancestor) {
+		if (ancestor == null) {
+			return false;
+		}
+		if (characteristic == null || ancestor.characteristic != characteristic) {
+			return getAncestors(DEPTH_NOT_SET).contains(ancestor);
+		}
+		return HierarchyIndex.get(characteristic).isDescendant(this, ancestor);
+	}
+
 	public Set<Concept> getAncestorsAndSelf(int depth) {
 		Set<Concept> allAncestorsAndSelf = getAncestors(depth);
 		allAncestorsAndSelf.add(this);
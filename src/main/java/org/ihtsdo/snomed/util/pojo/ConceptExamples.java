@@ -0,0 +1,57 @@
+package org.ihtsdo.snomed.util.pojo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A sample of the concepts seen with a shape, kept to illustrate it when shapes are printed.
+ * Reservoir sampling holds at most MAX_EXAMPLES concepts however many are offered, with every concept offered
+ * equally likely to be in the sample. The random numbers are seeded, so the same concepts offered in the same order
+ * always give the same sample. Any number of threads may offer examples.
+ * Nothing is remembered about the concepts not kept, so callers offer each concept once.
+ */
+class ConceptExamples {
+
+	static final int MAX_EXAMPLES = 10;
+	private static final long SEED = 0x5EED5A3B1E5L;
+
+	private final List<Concept> examples = new ArrayList<>();
+	private final Random random;
+	private long offered = 0;
+
+	/**
+	 * @param salt	mixed into the seed so that different shapes don't all sample the same positions
+	 */
+	ConceptExamples(long salt) {
+		random = new Random(SEED ^ salt);
+	}
+
+	synchronized void add(Concept example) {
+		offered++;
+		if (examples.size() < MAX_EXAMPLES) {
+			examples.add(example);
+		} else {
+			// Keep this one with probability MAX_EXAMPLES / offered, in place of a random existing example
+			long position = random.nextLong(offered);
+			if (position < examples.size()) {
+				examples.set((int) position, example);
+			}
+		}
+	}
+
+	/**
+	 * @return a copy of the sampled examples
+	 */
+	synchronized List<Concept> getExamples() {
+		return new ArrayList<>(examples);
+	}
+
+	/**
+	 * @return how many concepts have been offered, including those not kept
+	 */
+	synchronized long getTotal() {
+		return offered;
+	}
+
+}
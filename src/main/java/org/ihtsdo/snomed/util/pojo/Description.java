@@ -1,5 +1,6 @@
 package org.ihtsdo.snomed.util.pojo;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -20,6 +21,27 @@ public class Description implements RF2SchemaConstants {
 		}
 	}
 
+	/**
+	 * Used when restoring an FSN from a GraphCache
+	 */
+	Description(Long conceptId, String term) {
+		this.conceptId = conceptId;
+		this.term = term;
+		allFSNs.put(conceptId, this);
+	}
+
+	Long getConceptId() {
+		return conceptId;
+	}
+
+	String getTerm() {
+		return term;
+	}
+
+	static Collection<Description> getAllFSNs() {
+		return allFSNs.values();
+	}
+
 	public static String getFormattedConcept(Long conceptId) {
 		String formattedConcept = Long.toString(conceptId);
 		if (allFSNs.containsKey(conceptId)) {
@@ -0,0 +1,186 @@
+package org.ihtsdo.snomed.util.pojo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.ihtsdo.snomed.util.rf2.schema.RF2SchemaConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * Binary copy of the concept graph built by GraphLoader - concepts, IS A hierarchy, attribute groups and
+ * FSNs - so that a restart against the same release can skip parsing the RF2 files.
+ * The cache is only used if the release date and the checksums of the source files match those it was written with.
+ */
+public class GraphCache implements RF2SchemaConstants {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(GraphCache.class);
+
+	private static final int MAGIC_NUMBER = 0x52463243; // "RF2C"
+	private static final int FORMAT_VERSION = 1;
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	private static final CHARACTERISTIC[] CACHED_VIEWS = new CHARACTERISTIC[] { CHARACTERISTIC.STATED, CHARACTERISTIC.INFERRED };
+
+	private final File cacheFile;
+
+	public GraphCache(File cacheFile) {
+		this.cacheFile = cacheFile;
+	}
+
+	/**
+	 * Populates the concept registries from the cache file, if it was written for this release date and source files.
+	 * @return false if the cache is missing or out of date, in which case nothing has been loaded
+	 */
+	public boolean load(String releaseDate, long[] checksums) throws IOException {
+		if (!cacheFile.exists()) {
+			LOGGER.info("No graph cache found at {}", cacheFile);
+			return false;
+		}
+
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), BUFFER_SIZE))) {
+			if (in.readInt() != MAGIC_NUMBER || in.readInt() != FORMAT_VERSION) {
+				LOGGER.info("Graph cache {} is not in the current format, ignoring", cacheFile);
+				return false;
+			}
+			String cachedReleaseDate = in.readUTF();
+			long[] cachedChecksums = new long[in.readInt()];
+			for (int x = 0; x < cachedChecksums.length; x++) {
+				cachedChecksums[x] = in.readLong();
+			}
+			if (!cachedReleaseDate.equals(releaseDate) || !Arrays.equals(cachedChecksums, checksums)) {
+				LOGGER.info("Graph cache {} was written for release {} with different source files, ignoring", cacheFile, cachedReleaseDate);
+				return false;
+			}
+
+			int fullyDefinedCount = in.readInt();
+			for (int x = 0; x < fullyDefinedCount; x++) {
+				Concept.addFullyDefined(Long.toString(in.readLong()));
+			}
+
+			for (CHARACTERISTIC characteristic : CACHED_VIEWS) {
+				readConcepts(in, characteristic);
+			}
+
+			int fsnCount = in.readInt();
+			for (int x = 0; x < fsnCount; x++) {
+				new Description(in.readLong(), in.readUTF());
+			}
+		}
+		LOGGER.info("Concept graph for release {} restored from {} in {}", releaseDate, cacheFile, stopwatch);
+		return true;
+	}
+
+	private void readConcepts(DataInputStream in, CHARACTERISTIC characteristic) throws IOException {
+		// All concepts are created first, so that relationships can refer to them by id
+		Concept[] concepts = new Concept[in.readInt()];
+		for (int x = 0; x < concepts.length; x++) {
+			Concept concept = new Concept(in.readLong());
+			concept.setFullyDefined(in.readBoolean());
+			Concept.registerConcept(concept, characteristic);
+			concepts[x] = concept;
+		}
+
+		for (Concept concept : concepts) {
+			int parentCount = in.readInt();
+			for (int x = 0; x < parentCount; x++) {
+				concept.addParent(Concept.getConcept(in.readLong(), characteristic));
+			}
+
+			int groupCount = in.readInt();
+			for (int groupNum = 0; groupNum < groupCount; groupNum++) {
+				RelationshipGroup group = new RelationshipGroup(groupNum);
+				concept.groups.add(group);
+				int attributeCount = in.readInt();
+				for (int x = 0; x < attributeCount; x++) {
+					long typeId = in.readLong();
+					Concept destination = Concept.getConcept(in.readLong(), characteristic);
+					Relationship r = new Relationship(concept, destination, typeId, groupNum);
+					r.isActive(true);
+					r.setChangedThisRelease(in.readBoolean());
+					group.addAttribute(r);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the currently loaded concept graph out to the cache file, replacing any previous cache.
+	 */
+	public void save(String releaseDate, long[] checksums) throws IOException {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		// Write alongside and then move into place, so an interrupted save can't leave a truncated cache behind
+		File tempFile = new File(cacheFile.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE))) {
+			out.writeInt(MAGIC_NUMBER);
+			out.writeInt(FORMAT_VERSION);
+			out.writeUTF(releaseDate);
+			out.writeInt(checksums.length);
+			for (long checksum : checksums) {
+				out.writeLong(checksum);
+			}
+
+			Set<Long> fullyDefinedIds = Concept.getFullyDefinedIds();
+			out.writeInt(fullyDefinedIds.size());
+			for (Long sctId : fullyDefinedIds) {
+				out.writeLong(sctId);
+			}
+
+			for (CHARACTERISTIC characteristic : CACHED_VIEWS) {
+				writeConcepts(out, Concept.getAllConcepts(characteristic));
+			}
+
+			Collection<Description> fsns = Description.getAllFSNs();
+			out.writeInt(fsns.size());
+			for (Description fsn : fsns) {
+				out.writeLong(fsn.getConceptId());
+				out.writeUTF(fsn.getTerm());
+			}
+		}
+		Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		LOGGER.info("Concept graph for release {} written to {} in {}", releaseDate, cacheFile, stopwatch);
+	}
+
+	private void writeConcepts(DataOutputStream out, Collection<Concept> concepts) throws IOException {
+		out.writeInt(concepts.size());
+		for (Concept concept : concepts) {
+			out.writeLong(concept.getSctId());
+			out.writeBoolean(concept.isFullyDefined());
+		}
+
+		// Children are not written as they're the inverse of the parents
+		for (Concept concept : concepts) {
+			out.writeInt(concept.parents.size());
+			for (Concept parent : concept.parents) {
+				out.writeLong(parent.getSctId());
+			}
+
+			List<RelationshipGroup> groups = concept.groups;
+			out.writeInt(groups.size());
+			for (RelationshipGroup group : groups) {
+				Set<Relationship> attributes = group.getAttributes();
+				out.writeInt(attributes.size());
+				for (Relationship r : attributes) {
+					out.writeLong(r.getTypeId());
+					out.writeLong(r.getDestinationId());
+					out.writeBoolean(r.isChangedThisRelease());
+				}
+			}
+		}
+	}
+
+}
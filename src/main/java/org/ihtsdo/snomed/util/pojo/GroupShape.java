@@ -1,62 +1,115 @@
 package org.ihtsdo.snomed.util.pojo;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * A combination of attribute types found together in relationship groups. Shapes are identified by a 64 bit
+ * signature of their type ids which doesn't depend on the order of the types, so it can be worked out for any
+ * combination of a group's attributes without building a list of them.
+ */
 public class GroupShape {
 
-	String id;
+	public static final long EMPTY_SHAPE = 0L;
+
+	long id;
 	Set<Integer> partialMatch = new HashSet<>();
 	Set<Integer> abstractMatch = new HashSet<>();
-	int popularity = 0;
+	// Counted from any number of threads while shapes are being examined
+	final LongAdder popularity = new LongAdder();
 	Set<Concept> shapeStructure = new HashSet<>();
-	Set<Concept> examples = new HashSet<>();
+	final ConceptExamples examples;
 
-    static ConcurrentMap<String, GroupShape> knownShapes = new ConcurrentHashMap<>();
+    static ConcurrentMap<Long, GroupShape> knownShapes = new ConcurrentHashMap<>();
 
 	// For a match with a more abstract (ie parent) type, we may go more
 	// than one ancestor up the hierarchy. But this hasn't been needed yet.
 	// Set<Integer, int> generationMatch
-	public GroupShape (String id, Set<Integer> partialMatch, 
+	public GroupShape (long id, Set<Integer> partialMatch, 
 			Set<Integer> abstractMatch, int popularity){
 		this.id = id;
+		this.examples = new ConceptExamples(id);
 		this.partialMatch = partialMatch;
 		this.abstractMatch = abstractMatch;
-		this.popularity = popularity;
+		this.popularity.add(popularity);
 	}
 
-	private GroupShape(String id) {
+	private GroupShape(long id) {
 		this.id = id;
+		this.examples = new ConceptExamples(id);
+	}
+
+	/**
+	 * Scrambles a type id so that the sum of several of them is unlikely to match the sum of any others
+	 * (the finalizer of the SplitMix64 generator)
+	 */
+	static long mix(long typeId) {
+		long z = typeId + 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @param mixedTypeSum	the sum of mix(typeId) for every type in the shape, repeated types included
+	 * @param typeCount		how many types that was
+	 */
+	static long signature(long mixedTypeSum, int typeCount) {
+		return mix(mixedTypeSum + typeCount);
+	}
+
+	/**
+	 * @return the signature of a shape containing these types, in any order
+	 */
+	public static long signature(long... typeIds) {
+		if (typeIds.length == 0) {
+			return EMPTY_SHAPE;
+		}
+		long sum = 0;
+		for (long typeId : typeIds) {
+			sum += mix(typeId);
+		}
+		return signature(sum, typeIds.length);
+	}
+
+	public static GroupShape get(long groupShapeId) {
+		// Atomic, so threads asking for the same new shape can't each register their own copy of it
+		return knownShapes.computeIfAbsent(groupShapeId, GroupShape::new);
 	}
 
-	public static GroupShape get(String groupShapeId) {
-		// Do we know about this shape?
-		GroupShape shape = knownShapes.get(groupShapeId);
-		if (shape == null) {
-			shape = new GroupShape(groupShapeId);
-			knownShapes.put(groupShapeId, shape);
+	/**
+	 * @return a copy of the current popularity of every known entry, so that two runs can be compared
+	 */
+	public static Map<Long, Integer> getPopularities() {
+		Map<Long, Integer> popularities = new HashMap<>();
+		for (Map.Entry<Long, GroupShape> entry : knownShapes.entrySet()) {
+			popularities.put(entry.getKey(), entry.getValue().getPopularity());
 		}
-		return shape;
+		return popularities;
 	}
 
 	public static void resetPopularities() {
 		for (GroupShape thisShape : knownShapes.values()) {
-			thisShape.popularity = 0;
+			thisShape.popularity.reset();
 		}
 	}
 
-	public static void registerShape(String groupShapeId) {
+	public static void registerShape(long groupShapeId) {
 		get(groupShapeId);
 	}
 
-	public String getId() {
+	public long getId() {
 		return id;
 	}
 
-	public void setId(String id) {
+	public void setId(long id) {
 		this.id = id;
 	}
 
@@ -77,11 +130,11 @@ public class GroupShape {
 	}
 
 	public int getPopularity() {
-		return popularity;
+		return popularity.intValue();
 	}
 
 	public void incrementPopularity() {
-		this.popularity++;
+		this.popularity.increment();
 	}
 
 	public Set<Concept> getShapeStructure() {
@@ -97,19 +150,34 @@ public class GroupShape {
 		this.examples.add(example);
 	}
 
+	/**
+	 * Counts each of the examples, offering them in the order given. A concept listed several times in a row (once
+	 * for each of its groups with this shape) is counted each time but only offered as an example once.
+	 */
+	public void incrementPopularity(List<Concept> examples) {
+		this.popularity.add(examples.size());
+		Concept previous = null;
+		for (Concept example : examples) {
+			if (example != previous) {
+				this.examples.add(example);
+			}
+			previous = example;
+		}
+	}
+
 	// Print all known shapes, ordered by popularity, with attributes and examples
 	public static void print() {
 		for (GroupShape s : knownShapesSorted()) {
 			out("", true);
-			out(s.popularity + ": Shape - " + s.id, true);
+			out(s.getPopularity() + ": Shape - " + s, true);
 			out("----------------------------------------", true);
 			out(s.toStructure(), true);
 
-			out("[Examples: ", false);
+			out("[Examples (sampled from " + s.examples.getTotal() + "): ", false);
 			boolean isFirst = true;
 			int count = 0;
 			limit_examples:
-			for (Concept example : s.examples) {
+			for (Concept example : s.examples.getExamples()) {
 				if (isFirst) {
 					isFirst = false;
 				} else {
@@ -145,7 +213,7 @@ public class GroupShape {
 
 	private static GroupShape[] knownShapesSorted() {
 		GroupShape[] shapes = knownShapes.values().toArray(new GroupShape[0]);
-		Arrays.sort(shapes, (o1, o2) -> o2.popularity - o1.popularity);
+		Arrays.sort(shapes, (o1, o2) -> o2.getPopularity() - o1.getPopularity());
 		return shapes;
 	}
 
@@ -157,12 +225,12 @@ public class GroupShape {
 		}
 	}
 
-	public static boolean isKnown(String shapeId) {
+	public static boolean isKnown(long shapeId) {
 		return knownShapes.containsKey(shapeId);
 	}
 
 	public String toString() {
-		return id;
+		return id == EMPTY_SHAPE ? "Empty Shape" : Long.toHexString(id);
 	}
 
 
@@ -2,17 +2,22 @@ package org.ihtsdo.snomed.util.pojo;
 
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 
 public class GroupsHash {
 
 	String id;
-	int popularity = 0;
+	// Counted from any number of threads while shapes are being examined
+	final LongAdder popularity = new LongAdder();
 	Set<GroupShape> hashStructure = new HashSet<>();
-	Set<Concept> examples = new HashSet<>();
+	final ConceptExamples examples;
 
 	static ConcurrentMap<String, GroupsHash> knownHashes = new ConcurrentHashMap<>();
 
@@ -21,26 +26,34 @@ public class GroupsHash {
 	// Set<Integer, int> generationMatch
 	public GroupsHash(String id, int popularity) {
 		this.id = id;
-		this.popularity = popularity;
+		this.examples = new ConceptExamples(id.hashCode());
+		this.popularity.add(popularity);
 	}
 
 	private GroupsHash(String id) {
 		this.id = id;
+		this.examples = new ConceptExamples(id.hashCode());
 	}
 
 	public static GroupsHash get(String groupsHash) {
-		// Do we know about this shape?
-		GroupsHash shape = knownHashes.get(groupsHash);
-		if (shape == null) {
-			shape = new GroupsHash(groupsHash);
-			knownHashes.put(groupsHash, shape);
+		// Atomic, so threads asking for the same new hash can't each register their own copy of it
+		return knownHashes.computeIfAbsent(groupsHash, GroupsHash::new);
+	}
+
+	/**
+	 * @return a copy of the current popularity of every known entry, so that two runs can be compared
+	 */
+	public static Map<String, Integer> getPopularities() {
+		Map<String, Integer> popularities = new HashMap<>();
+		for (Map.Entry<String, GroupsHash> entry : knownHashes.entrySet()) {
+			popularities.put(entry.getKey(), entry.getValue().getPopularity());
 		}
-		return shape;
+		return popularities;
 	}
 
 	public static void resetPopularities() {
 		for (GroupsHash thisShape : knownHashes.values()) {
-			thisShape.popularity = 0;
+			thisShape.popularity.reset();
 		}
 	}
 
@@ -57,11 +70,11 @@ public class GroupsHash {
 	}
 
 	public int getPopularity() {
-		return popularity;
+		return popularity.intValue();
 	}
 
 	public void incrementPopularity() {
-		this.popularity++;
+		this.popularity.increment();
 	}
 
 	public void incrementPopularity(Concept example) {
@@ -69,11 +82,26 @@ public class GroupsHash {
 		this.examples.add(example);
 	}
 
+	/**
+	 * Counts each of the examples, offering them in the order given. A concept listed several times in a row (once
+	 * for each of its groups with this shape) is counted each time but only offered as an example once.
+	 */
+	public void incrementPopularity(List<Concept> examples) {
+		this.popularity.add(examples.size());
+		Concept previous = null;
+		for (Concept example : examples) {
+			if (example != previous) {
+				this.examples.add(example);
+			}
+			previous = example;
+		}
+	}
+
 	// Print all known shapes, ordered by popularity, with attributes and examples
 	public static void print() {
 		for (GroupsHash h : knownHashesSorted()) {
 			out("", true);
-			out(h.popularity + ": hash id - " + h.id, true);
+			out(h.getPopularity() + ": hash id - " + h.id, true);
 			out("----------------------------------------", true);
 
 			out("[", true);
@@ -83,11 +111,11 @@ public class GroupsHash {
 			out("]", true);
 
 
-			out("[Examples: ", false);
+			out("[Examples (sampled from " + h.examples.getTotal() + "): ", false);
 			boolean isFirst = true;
 			int count = 0;
 			limit_examples:
-			for (Concept example : h.examples) {
+			for (Concept example : h.examples.getExamples()) {
 				if (isFirst) {
 					isFirst = false;
 				} else {
@@ -106,7 +134,7 @@ public class GroupsHash {
 	private static GroupsHash[] knownHashesSorted() {
 		GroupsHash[] hashes = new GroupsHash[knownHashes.size()];
 		hashes = knownHashes.values().toArray(hashes);
-		Arrays.sort(hashes, Comparator.comparingInt(o -> o.popularity));
+		Arrays.sort(hashes, Comparator.comparingInt(GroupsHash::getPopularity));
 		return hashes;
 	}
 
@@ -0,0 +1,292 @@
+package org.ihtsdo.snomed.util.pojo;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.ihtsdo.snomed.util.rf2.schema.RF2SchemaConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * Transitive closure of the IS A hierarchy for one characteristic (stated or inferred).
+ * Concepts are numbered in topological order (every parent before its children) and each concept's ancestors and
+ * descendants are held as sorted arrays of those ordinals, so subsumption is a binary search and the full set of
+ * descendants can be listed without walking the hierarchy. The shortest depth of each concept below the SNOMED root
+ * is held the same way.
+ * Built on first use and discarded whenever a concept is registered or an IS A relationship is added.
+ */
+public class HierarchyIndex implements RF2SchemaConstants {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(HierarchyIndex.class);
+
+	private static final Map<CHARACTERISTIC, HierarchyIndex> indexes = new EnumMap<>(CHARACTERISTIC.class);
+
+	private final Concept[] concepts;
+	private final int[][] ancestors;
+	private final int[][] descendants;
+	private final int[] depths;
+
+	public static synchronized HierarchyIndex get(CHARACTERISTIC characteristic) {
+		HierarchyIndex index = indexes.get(characteristic);
+		if (index == null) {
+			index = new HierarchyIndex(characteristic, Concept.getAllConcepts(characteristic));
+			indexes.put(characteristic, index);
+		}
+		return index;
+	}
+
+	static synchronized void invalidate(CHARACTERISTIC characteristic) {
+		indexes.remove(characteristic);
+	}
+
+	private HierarchyIndex(CHARACTERISTIC characteristic, Collection<Concept> allConcepts) {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		concepts = sortTopologically(allConcepts);
+		for (int ordinal = 0; ordinal < concepts.length; ordinal++) {
+			concepts[ordinal].setOrdinal(ordinal);
+		}
+
+		// Parents are always indexed before their children, so their ancestors are already known
+		ancestors = new int[concepts.length][];
+		int[] descendantCounts = new int[concepts.length];
+		long pairCount = 0;
+		for (int ordinal = 0; ordinal < concepts.length; ordinal++) {
+			int[] merged = new int[0];
+			for (Concept parent : concepts[ordinal].parents) {
+				if (parent.getOrdinal() > ordinal) {
+					// Only possible for concepts in a cycle, which have already been reported
+					continue;
+				}
+				// The parent's own ordinal is higher than any of its ancestors', so appending it keeps the array sorted
+				int[] parentAncestors = ancestors[parent.getOrdinal()];
+				int[] parentAndAncestors = Arrays.copyOf(parentAncestors, parentAncestors.length + 1);
+				parentAndAncestors[parentAncestors.length] = parent.getOrdinal();
+				merged = merge(merged, parentAndAncestors);
+			}
+			ancestors[ordinal] = merged;
+			for (int ancestor : merged) {
+				descendantCounts[ancestor]++;
+			}
+			pairCount += merged.length;
+		}
+
+		// Invert the ancestors. Working through concepts in ordinal order leaves each descendant array sorted.
+		descendants = new int[concepts.length][];
+		for (int ordinal = 0; ordinal < concepts.length; ordinal++) {
+			descendants[ordinal] = new int[descendantCounts[ordinal]];
+			descendantCounts[ordinal] = 0;
+		}
+		for (int ordinal = 0; ordinal < concepts.length; ordinal++) {
+			for (int ancestor : ancestors[ordinal]) {
+				descendants[ancestor][descendantCounts[ancestor]++] = ordinal;
+			}
+		}
+		LOGGER.info("{} hierarchy index built for {} concepts ({} ancestor pairs) in {}", characteristic, concepts.length, pairCount, stopwatch);
+
+		Stopwatch depthTime = Stopwatch.createStarted();
+		depths = new int[concepts.length];
+		Arrays.fill(depths, Concept.DEPTH_NOT_SET);
+		Concept root = Concept.getConcept(SNOMED_ROOT_CONCEPT, characteristic);
+		long visits = root == null ? 0 : assignDepths(root);
+		LOGGER.info("{} hierarchy depths assigned in {} ({} visits)", characteristic, depthTime, visits);
+	}
+
+	/**
+	 * Breadth first from the root, so each concept is first reached by one of its shortest paths and never needs
+	 * to be revisited.
+	 * @return the number of child links followed
+	 */
+	private long assignDepths(Concept root) {
+		int[] queue = new int[concepts.length];
+		int head = 0, tail = 0;
+		depths[root.getOrdinal()] = 0;
+		queue[tail++] = root.getOrdinal();
+		long visits = 0;
+		while (head < tail) {
+			int ordinal = queue[head++];
+			for (Concept child : concepts[ordinal].children) {
+				visits++;
+				if (depths[child.getOrdinal()] == Concept.DEPTH_NOT_SET) {
+					depths[child.getOrdinal()] = depths[ordinal] + 1;
+					queue[tail++] = child.getOrdinal();
+				}
+			}
+		}
+		return visits;
+	}
+
+	/**
+	 * Kahn's algorithm, starting from the concepts without parents. Any concepts left over would be part of a cycle,
+	 * which the IS A hierarchy should never contain, so they are appended with a warning rather than failing the load.
+	 */
+	private static Concept[] sortTopologically(Collection<Concept> allConcepts) {
+		Concept[] sorted = new Concept[allConcepts.size()];
+		Map<Concept, Integer> unprocessedParents = new IdentityHashMap<>();
+		Deque<Concept> ready = new ArrayDeque<>();
+		for (Concept concept : allConcepts) {
+			if (concept.parents.isEmpty()) {
+				ready.add(concept);
+			} else {
+				unprocessedParents.put(concept, concept.parents.size());
+			}
+		}
+
+		int sortedCount = 0;
+		while (!ready.isEmpty()) {
+			Concept concept = ready.poll();
+			sorted[sortedCount++] = concept;
+			for (Concept child : concept.children) {
+				int remaining = unprocessedParents.merge(child, -1, Integer::sum);
+				if (remaining == 0) {
+					unprocessedParents.remove(child);
+					ready.add(child);
+				}
+			}
+		}
+
+		if (!unprocessedParents.isEmpty()) {
+			LOGGER.warn("{} concepts could not be ordered as they are part of a cycle in the IS A hierarchy", unprocessedParents.size());
+			for (Concept concept : unprocessedParents.keySet()) {
+				sorted[sortedCount++] = concept;
+			}
+		}
+		return sorted;
+	}
+
+	private static int[] merge(int[] a, int[] b) {
+		int[] merged = new int[a.length + b.length];
+		int i = 0, j = 0, k = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				merged[k++] = a[i++];
+			} else if (a[i] > b[j]) {
+				merged[k++] = b[j++];
+			} else {
+				merged[k++] = a[i++];
+				j++;
+			}
+		}
+		while (i < a.length) {
+			merged[k++] = a[i++];
+		}
+		while (j < b.length) {
+			merged[k++] = b[j++];
+		}
+		return k == merged.length ? merged : Arrays.copyOf(merged, k);
+	}
+
+	/**
+	 * @return true if descendant is a (strict) descendant of ancestor
+	 */
+	public boolean isDescendant(Concept descendant, Concept ancestor) {
+		return Arrays.binarySearch(ancestors[descendant.getOrdinal()], ancestor.getOrdinal()) >= 0;
+	}
+
+	/**
+	 * The hierarchy is a DAG rather than a tree, so the common ancestors are found by intersecting the sorted
+	 * ancestor ordinals of each concept, which costs no more than the total number of ancestors involved.
+	 * @return the deepest concept that is an ancestor of, or the same as, every one of the given concepts, or null
+	 * if there are none or they have nothing in common. Of equally deep ancestors, the one last in
+	 * topological order is returned.
+	 */
+	public Concept getDeepestCommonAncestor(Collection<Concept> conceptsToCompare) {
+		int[] common = null;
+		for (Concept concept : conceptsToCompare) {
+			int[] conceptAncestors = ancestors[concept.getOrdinal()];
+			// A concept's own ordinal is higher than any of its ancestors', so appending it keeps the array sorted
+			int[] ancestorsAndSelf = Arrays.copyOf(conceptAncestors, conceptAncestors.length + 1);
+			ancestorsAndSelf[conceptAncestors.length] = concept.getOrdinal();
+			common = common == null ? ancestorsAndSelf : intersect(common, ancestorsAndSelf);
+			if (common.length == 0) {
+				return null;
+			}
+		}
+		if (common == null) {
+			return null;
+		}
+
+		int deepest = -1;
+		for (int ordinal : common) {
+			if (deepest == -1 || depths[ordinal] >= depths[deepest]) {
+				deepest = ordinal;
+			}
+		}
+		return concepts[deepest];
+	}
+
+	private static int[] intersect(int[] a, int[] b) {
+		int[] common = new int[Math.min(a.length, b.length)];
+		int i = 0, j = 0, k = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				common[k++] = a[i++];
+				j++;
+			}
+		}
+		return k == common.length ? common : Arrays.copyOf(common, k);
+	}
+
+	public Set<Concept> getAncestors(Concept concept) {
+		return toConcepts(ancestors[concept.getOrdinal()]);
+	}
+
+	public Set<Concept> getDescendants(Concept concept) {
+		return toConcepts(descendants[concept.getOrdinal()]);
+	}
+
+	/**
+	 * @return the length of the shortest IS A path from the SNOMED root to the concept, or Concept.DEPTH_NOT_SET if
+	 * the concept is not below the root
+	 */
+	public int getDepth(Concept concept) {
+		return depths[concept.getOrdinal()];
+	}
+
+	public int countDescendants(Concept concept) {
+		return descendants[concept.getOrdinal()].length;
+	}
+
+	/**
+	 * @return the ordinals of all descendants of the concept, in ascending order. Not to be modified.
+	 */
+	int[] getDescendantOrdinals(Concept concept) {
+		return descendants[concept.getOrdinal()];
+	}
+
+	/**
+	 * @return the ordinals of all ancestors of the concept, in ascending order. Not to be modified.
+	 */
+	int[] getAncestorOrdinals(Concept concept) {
+		return ancestors[concept.getOrdinal()];
+	}
+
+	public Concept getConcept(int ordinal) {
+		return concepts[ordinal];
+	}
+
+	public int size() {
+		return concepts.length;
+	}
+
+	private Set<Concept> toConcepts(int[] ordinals) {
+		Set<Concept> result = new HashSet<>(Math.max(16, (int) (ordinals.length / 0.75f) + 1));
+		for (int ordinal : ordinals) {
+			result.add(concepts[ordinal]);
+		}
+		return result;
+	}
+
+}
@@ -1,14 +1,15 @@
 package org.ihtsdo.snomed.util.pojo;
 
-import org.ihtsdo.snomed.util.Type5UuidFactory;
+import org.ihtsdo.snomed.util.ConcurrentType5UuidFactory;
+import org.ihtsdo.snomed.util.rf2.RelationshipKey;
 import org.ihtsdo.snomed.util.rf2.schema.RF2SchemaConstants;
 
 public class Relationship implements Comparable<Relationship>, RF2SchemaConstants {
 
-	private static final Type5UuidFactory type5UuidFactory;
+	private static final ConcurrentType5UuidFactory type5UuidFactory;
 	static {
 		try {
-			type5UuidFactory = new Type5UuidFactory();
+			type5UuidFactory = new ConcurrentType5UuidFactory();
 		} catch (Exception e) {
 			throw new RuntimeException("Unable to initialise UUID factory", e);
 		}
@@ -18,7 +19,7 @@ public class Relationship implements Comparable<Relationship>, RF2SchemaConstant
 	private Concept sourceConcept;
 	private Concept destinationConcept;
 	private final Long typeId;
-	private final String uuid;
+	private volatile String uuid; // Only generated if asked for
 	private final int group;
 	private boolean active;
 	boolean changedThisRelease = false;
@@ -28,10 +29,6 @@ public class Relationship implements Comparable<Relationship>, RF2SchemaConstant
 	public Relationship(String[] lineValues, CHARACTERISTIC characteristic, boolean storeLineItems) throws Exception {
 		typeId = Long.valueOf(lineValues[REL_IDX_TYPEID]);
 		group = Integer.parseInt(lineValues[REL_IDX_RELATIONSHIPGROUP]);
-		uuid = type5UuidFactory.get(
-				lineValues[REL_IDX_SOURCEID] + lineValues[REL_IDX_DESTINATIONID] + lineValues[REL_IDX_TYPEID]
-				+ lineValues[REL_IDX_RELATIONSHIPGROUP])
-				.toString();
 		sourceConcept = Concept.registerConcept(lineValues[REL_IDX_SOURCEID], characteristic);
 		destinationConcept = Concept.registerConcept(lineValues[REL_IDX_DESTINATIONID], characteristic);
 		sourceConcept.addAttribute(this);
@@ -40,6 +37,16 @@ public class Relationship implements Comparable<Relationship>, RF2SchemaConstant
 		}
 	}
 
+	/**
+	 * Used when restoring a relationship from a GraphCache, where the concepts already exist
+	 */
+	Relationship(Concept sourceConcept, Concept destinationConcept, long typeId, int group) {
+		this.sourceConcept = sourceConcept;
+		this.destinationConcept = destinationConcept;
+		this.typeId = typeId;
+		this.group = group;
+	}
+
 	boolean isISA() {
 		return typeId.equals(ISA_ID);
 	}
@@ -48,10 +55,21 @@ public class Relationship implements Comparable<Relationship>, RF2SchemaConstant
 		return typeId;
 	}
 
+	/**
+	 * @return the Type 5 UUID of the source, destination, type and group, generated on first use. Where the
+	 * relationship just needs to be identified, getKey is much cheaper.
+	 */
 	public String getUuid() {
+		if (uuid == null) {
+			uuid = type5UuidFactory.get(getSourceId().toString() + getDestinationId() + typeId + group).toString();
+		}
 		return uuid;
 	}
 
+	public RelationshipKey getKey() {
+		return new RelationshipKey(getSourceId(), getDestinationId(), typeId, group);
+	}
+
 	public Concept getSourceConcept() {
 		return sourceConcept;
 	}
@@ -1,25 +1,19 @@
 package org.ihtsdo.snomed.util.pojo;
 
-import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.TreeSet;
 
-import org.ihtsdo.snomed.util.Type5UuidFactory;
+import org.ihtsdo.util.GrayCodeWalker;
 
 public class RelationshipGroup {
 
-	private static final Type5UuidFactory type5UuidFactory;
-	private static final String EMTPTY_SHAPE = "Empty Shape";
 	private static final int IMMEDIATE_PARENT = 1;
-	static {
-		try {
-			type5UuidFactory = new Type5UuidFactory();
-		} catch (Exception e) {
-			throw new RuntimeException("Unable to initialise UUID factory", e);
-		}
-	}
+
+	// States of each attribute in the shape walkers
+	public static final int ATTRIBUTE_OMITTED = 0;
+	public static final int ATTRIBUTE_TYPE = 1;
+	public static final int ATTRIBUTE_PARENT_TYPE = 2;
 
 	public RelationshipGroup(int number) {
 		this.number = number;
@@ -29,44 +23,46 @@ public class RelationshipGroup {
 	private GroupShape basicGroupShape = null;
 	private final int number;
 	private GroupShape mostPopularShape;
+	// Type ids (and the ids of their immediate parents) in attribute order, so that the shape
+	// of any combination of attributes can be worked out without walking the attributes again
+	private long[] typeIds = null;
+	private long[] parentTypeIds = null;
 
 	public void addAttribute(Relationship r) {
 		attributes.add(r);
+		typeIds = null;
+		parentTypeIds = null;
 	}
 
 	public int getNumber() {
 		return number;
 	}
 
-	// Returns a hash of the relationship group's types this will hopefully
-	// uniquely identify the shape of a group
-	public GroupShape getGroupBasicShape() throws UnsupportedEncodingException {
+	// Returns a signature of the relationship group's types which identifies the shape of a group
+	public GroupShape getGroupBasicShape() {
 		if (basicGroupShape == null) {
-			String groupTypesUUID = getGroupAbstractShape(new TreeSet<>()); // default - no type made more general
-			basicGroupShape = GroupShape.get(groupTypesUUID);
+			long signature = getGroupAbstractShape(new TreeSet<>()); // default - no type made more general
+			basicGroupShape = GroupShape.get(signature);
 			basicGroupShape.setShapeStructure(getAttributeTypes());
 		} 
 		return basicGroupShape;
 	}
-	
-	public String getGroupAbstractShape(Set<Integer> indexCombination) throws UnsupportedEncodingException {
-		ArrayList<Relationship> attributeList = new ArrayList<>(attributes);
-		String result;
-		if (attributeList.size() > 0) {
-			String typesConcatonated = "";
-			for (int x = 0; x < attributeList.size(); x++) {
-				Relationship r = attributeList.get(x);
-				if (indexCombination.contains(x)) {
-					typesConcatonated += r.getType().getAncestor(IMMEDIATE_PARENT).getSctId(); // just immediate parent
-				} else {
-					typesConcatonated += r.getTypeId();
-				}
-			}
-			result = type5UuidFactory.get(typesConcatonated).toString();
-		} else {
-			result = EMTPTY_SHAPE;
+
+	/**
+	 * @return the shape signature of all the attributes, using the immediate parent of the type for those
+	 * at the given indexes
+	 */
+	public long getGroupAbstractShape(Set<Integer> indexCombination) {
+		long[] types = getTypeIds();
+		if (types.length == 0) {
+			return GroupShape.EMPTY_SHAPE;
+		}
+		long[] parentTypes = indexCombination.isEmpty() ? null : getParentTypeIds();
+		long sum = 0;
+		for (int x = 0; x < types.length; x++) {
+			sum += GroupShape.mix(indexCombination.contains(x) ? parentTypes[x] : types[x]);
 		}
-		return result;
+		return GroupShape.signature(sum, types.length);
 	}
 
 	public int size() {
@@ -77,45 +73,90 @@ public class RelationshipGroup {
 		return "Group - " + number + " (size " + attributes.size() + ")";
 	}
 
-	public String getGroupPartialShape(Set<Integer> indexCombination) throws UnsupportedEncodingException {
-		ArrayList<Relationship> attributeList = new ArrayList<>(attributes);
-		String result;
-		if (attributeList.size() > 0 && indexCombination.size() > 0) {
-			String typesConcatonated = "";
-			for (int x = 0; x < attributeList.size(); x++) {
-				Relationship r = attributeList.get(x);
-				if (indexCombination.contains(x)) {
-					typesConcatonated += r.getTypeId();
-				}
+	/**
+	 * Walks the abstract shapes of this group. Each attribute is either in state 0 (its own type) or state 1 (its
+	 * type's immediate parent). Attributes whose type has no distinct parent stay in state 0. The first
+	 * combination is the basic shape.
+	 */
+	public GrayCodeWalker getAbstractShapeWalker() {
+		long[] types = getTypeIds();
+		long[] parentTypes = getParentTypeIds();
+		long[][] contributions = new long[types.length][];
+		for (int x = 0; x < types.length; x++) {
+			contributions[x] = types[x] == parentTypes[x]
+					? new long[] { GroupShape.mix(types[x]) }
+					: new long[] { GroupShape.mix(types[x]), GroupShape.mix(parentTypes[x]) };
+		}
+		return new GrayCodeWalker(contributions);
+	}
+
+	/**
+	 * Walks the partial shapes of this group, each attribute being ATTRIBUTE_OMITTED or ATTRIBUTE_TYPE
+	 */
+	public GrayCodeWalker getPartialShapeWalker() {
+		long[] types = getTypeIds();
+		long[][] contributions = new long[types.length][];
+		for (int x = 0; x < types.length; x++) {
+			contributions[x] = new long[] { 0, GroupShape.mix(types[x]) };
+		}
+		return new GrayCodeWalker(contributions);
+	}
+
+	/**
+	 * Walks the partial abstract shapes of this group, each attribute being ATTRIBUTE_OMITTED, ATTRIBUTE_TYPE or
+	 * (where its type has a distinct parent) ATTRIBUTE_PARENT_TYPE
+	 */
+	public GrayCodeWalker getPartialAbstractShapeWalker() {
+		long[] types = getTypeIds();
+		long[] parentTypes = getParentTypeIds();
+		long[][] contributions = new long[types.length][];
+		for (int x = 0; x < types.length; x++) {
+			contributions[x] = types[x] == parentTypes[x]
+					? new long[] { 0, GroupShape.mix(types[x]) }
+					: new long[] { 0, GroupShape.mix(types[x]), GroupShape.mix(parentTypes[x]) };
+		}
+		return new GrayCodeWalker(contributions);
+	}
+
+	/**
+	 * @return the signature of the shape an abstract shape walker is currently on
+	 */
+	public static long getAbstractShape(GrayCodeWalker walker) {
+		return walker.size() == 0 ? GroupShape.EMPTY_SHAPE : GroupShape.signature(walker.getSum(), walker.size());
+	}
+
+	/**
+	 * @return the signature of the shape a partial (or partial abstract) shape walker is currently on
+	 */
+	public static long getPartialShape(GrayCodeWalker walker) {
+		int attributeCount = walker.size() - walker.countInState(ATTRIBUTE_OMITTED);
+		return attributeCount == 0 ? GroupShape.EMPTY_SHAPE : GroupShape.signature(walker.getSum(), attributeCount);
+	}
+
+	private long[] getTypeIds() {
+		if (typeIds == null) {
+			long[] ids = new long[attributes.size()];
+			int x = 0;
+			for (Relationship r : attributes) {
+				ids[x++] = r.getTypeId();
 			}
-			result = type5UuidFactory.get(typesConcatonated).toString();
-		} else {
-			result = EMTPTY_SHAPE;
+			typeIds = ids;
 		}
-		return result;
-	}
-
-	public String getGroupPartialAbstractShape(Set<Integer> thisAttributeCombination, Set<Integer> thisAbstractCombination)
-			throws UnsupportedEncodingException {
-		ArrayList<Relationship> attributeList = new ArrayList<>(attributes);
-		String result;
-		if (!attributeList.isEmpty() && !thisAttributeCombination.isEmpty()) {
-			String typesConcatonated = "";
-			for (int x = 0; x < attributeList.size(); x++) {
-				Relationship r = attributeList.get(x);
-				if (thisAttributeCombination.contains(x)) {
-					if (thisAbstractCombination.contains(x)) {
-						typesConcatonated += r.getType().getAncestor(IMMEDIATE_PARENT).getSctId();
-					} else {
-						typesConcatonated += r.getTypeId();
-					}
-				}
+		return typeIds;
+	}
+
+	private long[] getParentTypeIds() {
+		if (parentTypeIds == null) {
+			long[] ids = new long[attributes.size()];
+			int x = 0;
+			for (Relationship r : attributes) {
+				// just immediate parent, or the type itself at the top of the hierarchy
+				Concept type = r.getType();
+				ids[x++] = type.getParents().isEmpty() ? r.getTypeId() : type.getAncestor(IMMEDIATE_PARENT).getSctId();
 			}
-			result = type5UuidFactory.get(typesConcatonated).toString();
-		} else {
-			result = EMTPTY_SHAPE;
+			parentTypeIds = ids;
 		}
-		return result;
+		return parentTypeIds;
 	}
 
 	public GroupShape getMostPopularShape() {
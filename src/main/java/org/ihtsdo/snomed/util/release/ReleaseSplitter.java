@@ -1,37 +1,89 @@
 package org.ihtsdo.snomed.util.release;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
-import org.apache.commons.io.IOUtils;
 import org.ihtsdo.snomed.util.SnomedUtilException;
+import org.ihtsdo.snomed.util.rf2.schema.FileRecognitionException;
+import org.ihtsdo.snomed.util.rf2.schema.SchemaFactory;
+import org.ihtsdo.snomed.util.rf2.schema.TableSchema;
 import org.ihtsdo.util.GlobalUtils;
 
-import com.google.common.collect.Lists;
+import com.google.common.base.Stopwatch;
 
 import static org.ihtsdo.util.GlobalUtils.print;
 
+/**
+ * Splits each file in a release archive into a number of pieces, each with the original header row.
+ * The pieces are written straight into one zip archive each while the release is read, a row at a time, so memory
+ * use doesn't depend on the size of the release and nothing is staged on disk.
+ * Rows are dealt out to the pieces in turn unless a maximum number of rows per piece is given, in which case each
+ * piece is filled up to that many rows before moving on to the next, with the last piece taking any remainder.
+ * Alternatively rows can be partitioned by key, hashing the column that identifies the concept (or other component)
+ * they belong to, so that a concept's own row, its descriptions, text definitions and relationships, and any refset
+ * members referring to the concept all end up in the same piece. Refset members are keyed on their
+ * referencedComponentId, which for the language, description inactivation and description association refsets is a
+ * description id, so those rows are partitioned by description and won't generally be in their concept's piece.
+ * Files which aren't recognised as RF2 are copied into every piece.
+ * In parallel mode the release is opened with random access and several files are split at once, each piece being
+ * written through a zip file system so that different files can be added to it concurrently.
+ */
 public class ReleaseSplitter {
 	
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	// How many files are split at once in parallel mode
+	static final int ENTRY_THREADS = 4;
+	static final int ROUND_ROBIN = 0;
+
 	File archive;
 	int splitCount;
+	int rowsPerPiece = ROUND_ROBIN;
+	boolean partitionByKey = false;
+	boolean parallel = false;
+	private final SchemaFactory schemaFactory = new SchemaFactory();
 	List <File> splitArchives = new ArrayList<>();
+	private ZipOutputStream[] zips;
+	// One per zip, kept open across entries and flushed before each entry is closed
+	private Writer[] pieces;
 
 	private static void doHelp() {
-		print("Usage: <release archive file location> <Number of pieces to split into>");
+		print("Usage: <release archive file location> <Number of pieces to split into> [maximum rows per piece | -k] [-p]");
+		print("  -k  keep the rows for a concept in the same piece (refset rows which refer to descriptions follow the description id)");
+		print("  -p  split " + ENTRY_THREADS + " files at a time");
 		System.exit(-1);
 	}
 
 	public static void main(String[] args) throws Exception {
-		if (args.length != 2) {
+		if (args.length < 2) {
 			doHelp();
 		}
 		ReleaseSplitter app = new ReleaseSplitter();
@@ -40,15 +92,33 @@ public class ReleaseSplitter {
 			throw new SnomedUtilException("Unable to read " + app.archive.getAbsolutePath());
 		}
 		app.splitCount = Integer.parseInt(args[1]);
-		app.generateSplitDirectories();
-		app.splitArchive();
-		app.zipArchives();
+		for (int x = 2; x < args.length; x++) {
+			if (args[x].equals("-k")) {
+				app.partitionByKey = true;
+			} else if (args[x].equals("-p")) {
+				app.parallel = true;
+			} else {
+				app.rowsPerPiece = Integer.parseInt(args[x]);
+			}
+		}
+		if (app.partitionByKey && app.rowsPerPiece != ROUND_ROBIN) {
+			print("-k can't be combined with a maximum number of rows per piece");
+			doHelp();
+		}
+		app.generateSplitArchives();
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		if (app.parallel) {
+			app.splitArchiveInParallel();
+		} else {
+			app.splitArchive();
+		}
+		print("Split " + app.archive.getName() + " into " + app.splitCount + " pieces in " + stopwatch);
 	}
 
-	private void generateSplitDirectories() throws SnomedUtilException {
+	private void generateSplitArchives() throws SnomedUtilException {
 		String[] pathParts = GlobalUtils.deconstructFilename(archive);
 		for (int x=1; x <= splitCount; x++) {
-			String splitArchivePath = pathParts[0] + File.separator + pathParts[1] + "_" + x;
+			String splitArchivePath = pathParts[0] + File.separator + pathParts[1] + "_" + x + ".zip";
 			File splitArchive = new File(splitArchivePath);
 			//Check it doesn't already exist!
 			if (splitArchive.exists()) {
@@ -61,6 +131,7 @@ public class ReleaseSplitter {
 	private void splitArchive() throws SnomedUtilException {
 		
 		try {
+			openSplitArchives();
 			ZipInputStream zis = new ZipInputStream(new FileInputStream(archive));
 			ZipEntry ze = zis.getNextEntry();
 			try {
@@ -77,50 +148,253 @@ public class ReleaseSplitter {
 					zis.closeEntry();
 					zis.close();
 				} catch (Exception e){} //Well, we tried.
+				closeSplitArchives();
 			}
 		} catch (IOException e) {
-			throw new SnomedUtilException("Failed to extract data from archive " + archive.getName(), e);
+			throw new SnomedUtilException("Failed to split archive " + archive.getName(), e);
 		}
 	}
 
-	private void splitFile(String fileName, InputStream is) throws IOException {
-		List<String> lines = IOUtils.readLines(is, "UTF-8");
-		List<List<String>> chunks = chunkList(lines);
-		
-		print("Original line count: " + lines.size());
-		String header = null;
-		for (int x=0; x < splitCount; x++) {
-			String fullPath = splitArchives.get(x) + File.separator + fileName;
-			int rowsWritten = chunks.get(x).size();
-			if (header == null) {
-				header = chunks.get(0).get(0);
-			} else {
-				rowsWritten++;
-				GlobalUtils.outputToFile(fullPath, header);
+	void openSplitArchives() throws IOException {
+		zips = new ZipOutputStream[splitCount];
+		pieces = new Writer[splitCount];
+		for (int x = 0; x < splitCount; x++) {
+			print("Creating archive : " + splitArchives.get(x));
+			zips[x] = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(splitArchives.get(x)), BUFFER_SIZE));
+			pieces[x] = new BufferedWriter(new OutputStreamWriter(zips[x], StandardCharsets.UTF_8), BUFFER_SIZE);
+		}
+	}
+
+	void closeSplitArchives() throws IOException {
+		IOException failure = null;
+		for (Writer piece : pieces) {
+			if (piece == null) {
+				continue;
+			}
+			try {
+				// Finishes the zip as well
+				piece.close();
+			} catch (IOException e) {
+				failure = e;
 			}
-			GlobalUtils.outputToFile(fullPath, chunks.get(x));
-			print("\t" + splitArchives.get(x) + "/" + fileName + " - count " + rowsWritten);
+		}
+		if (failure != null) {
+			throw failure;
 		}
 	}
-	
-	private List<List<String>> chunkList(List<String> lines) {
-		List<List<String>> chunks;
-		int chunkSize = (int) Math.ceil((double)lines.size() / (double)splitCount);
-		if (lines.size() > splitCount) {
-			chunks = Lists.partition(lines, chunkSize);
-		} else {
-			chunks = new ArrayList<>();
-			chunks.add(lines);
-			for (int x=1; x < splitCount; x++) {
-				chunks.add(new ArrayList<>());
+
+	/**
+	 * Parallel mode. The pieces are zip file systems rather than zip streams, so that each file can be written to
+	 * them as a separate entry by its own thread, with temporary files rather than memory holding each entry until
+	 * the pieces are closed. If any file fails, the pieces written so far are deleted.
+	 */
+	void splitArchiveInParallel() throws SnomedUtilException {
+		ExecutorService executor = Executors.newFixedThreadPool(ENTRY_THREADS);
+		FileSystem[] outputs = new FileSystem[splitCount];
+		boolean succeeded = false;
+		try (ZipFile zipFile = new ZipFile(archive)) {
+			try {
+				for (int x = 0; x < splitCount; x++) {
+					print("Creating archive : " + splitArchives.get(x));
+					outputs[x] = FileSystems.newFileSystem(splitArchives.get(x).toPath(), Map.of("create", "true", "useTempFile", Boolean.TRUE));
+				}
+				List<Future<Void>> tasks = new ArrayList<>();
+				for (ZipEntry entry : Collections.list(zipFile.entries())) {
+					if (!entry.isDirectory()) {
+						tasks.add(executor.submit(() -> {
+							splitEntry(zipFile, entry, outputs);
+							return null;
+						}));
+					}
+				}
+				for (Future<Void> task : tasks) {
+					task.get();
+				}
+			} finally {
+				// No task can still be writing to a piece when it is closed
+				awaitShutdown(executor);
+				// Closing each file system is what writes its zip
+				for (FileSystem output : outputs) {
+					if (output != null) {
+						output.close();
+					}
+				}
+			}
+			succeeded = true;
+		} catch (IOException e) {
+			throw new SnomedUtilException("Failed to split archive " + archive.getName(), e);
+		} catch (ExecutionException e) {
+			throw new SnomedUtilException("Failed to split archive " + archive.getName(), e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SnomedUtilException("Interrupted while splitting archive " + archive.getName(), e);
+		} finally {
+			if (!succeeded) {
+				deleteSplitArchives();
 			}
 		}
-		return chunks;
 	}
 
-	private void zipArchives() throws SnomedUtilException {
+	/**
+	 * Stops the executor, waiting for any running tasks to finish even if interrupted while doing so
+	 */
+	private static void awaitShutdown(ExecutorService executor) {
+		executor.shutdownNow();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (executor.awaitTermination(1, TimeUnit.MINUTES)) {
+					break;
+				}
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void deleteSplitArchives() {
 		for (File splitArchive : splitArchives) {
-			GlobalUtils.createArchive(splitArchive, splitArchive.getAbsolutePath());
+			try {
+				Files.deleteIfExists(splitArchive.toPath());
+			} catch (IOException e) {
+				print("Unable to delete partial archive " + splitArchive + ": " + e.getMessage());
+			}
+		}
+	}
+
+	private void splitEntry(ZipFile zipFile, ZipEntry entry, FileSystem[] outputs) throws IOException {
+		String fileName = Paths.get(entry.getName()).toString();
+		Writer[] entryPieces = new Writer[splitCount];
+		try (InputStream is = zipFile.getInputStream(entry)) {
+			for (int x = 0; x < splitCount; x++) {
+				Path piecePath = outputs[x].getPath(fileName);
+				if (piecePath.getParent() != null) {
+					Files.createDirectories(piecePath.getParent());
+				}
+				entryPieces[x] = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(piecePath), StandardCharsets.UTF_8), BUFFER_SIZE);
+			}
+			splitRows(fileName, is, entry.getSize(), entryPieces);
+		} finally {
+			for (Writer piece : entryPieces) {
+				if (piece != null) {
+					piece.close();
+				}
+			}
+		}
+	}
+
+	void splitFile(String fileName, InputStream is) throws IOException {
+		for (int x = 0; x < splitCount; x++) {
+			zips[x].putNextEntry(new ZipEntry(fileName));
+		}
+		splitRows(fileName, is, -1, pieces);
+		for (int x = 0; x < splitCount; x++) {
+			pieces[x].flush();
+			zips[x].closeEntry();
+		}
+	}
+
+	/**
+	 * Deals the rows of one file out to the pieces given, which are left open.
+	 * @param sizeBytes	the uncompressed size of the file if known, or -1
+	 */
+	private void splitRows(String fileName, InputStream is, long sizeBytes, Writer[] outputs) throws IOException {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		// Not closed, as that would close the zip stream the entry is being read from
+		BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8), BUFFER_SIZE);
+		String header = reader.readLine();
+		int keyIndex = partitionByKey && header != null ? getKeyFieldIndex(fileName, header) : -1;
+		boolean copyToAll = partitionByKey && keyIndex < 0;
+
+		long[] rowsWritten = new long[splitCount];
+		long lineCount = 0;
+		if (header != null) {
+			for (int x = 0; x < splitCount; x++) {
+				outputs[x].write(header + GlobalUtils.LINE_DELIMITER);
+				rowsWritten[x] = 1;
+			}
+			lineCount = 1;
+		}
+
+		int currentPiece = 0;
+		String line;
+		while (header != null && (line = reader.readLine()) != null) {
+			if (copyToAll) {
+				for (int x = 0; x < splitCount; x++) {
+					outputs[x].write(line + GlobalUtils.LINE_DELIMITER);
+					rowsWritten[x]++;
+				}
+				lineCount++;
+				continue;
+			}
+			if (partitionByKey) {
+				currentPiece = getPieceForKey(getField(line, keyIndex, fileName));
+			} else if (rowsPerPiece == ROUND_ROBIN) {
+				currentPiece = (int) ((lineCount - 1) % splitCount);
+			} else if (rowsWritten[currentPiece] > rowsPerPiece && currentPiece < splitCount - 1) {
+				// The header doesn't count towards the budget
+				currentPiece++;
+			}
+			outputs[currentPiece].write(line + GlobalUtils.LINE_DELIMITER);
+			rowsWritten[currentPiece]++;
+			lineCount++;
+		}
+		stopwatch.stop();
+
+		// Reported in one go, as other files may be being split at the same time
+		double seconds = Math.max(stopwatch.elapsed().toNanos(), 1) / 1e9;
+		DecimalFormat rate = new DecimalFormat("#,##0");
+		StringBuilder report = new StringBuilder(fileName + ": " + lineCount + " lines in " + stopwatch + " ("
+				+ rate.format(lineCount / seconds) + " lines/s"
+				+ (sizeBytes < 0 ? "" : ", " + new DecimalFormat("#,##0.0").format(sizeBytes / seconds / (1024 * 1024)) + " MB/s")
+				+ ")" + (copyToAll ? ", not RF2 so copied to every piece" : ""));
+		for (int x = 0; x < splitCount; x++) {
+			report.append(System.lineSeparator()).append("\t" + splitArchives.get(x) + "/" + fileName + " - count " + rowsWritten[x]);
+		}
+		print(report.toString());
+	}
+
+	/**
+	 * @return the column to partition the file on, or -1 if it isn't recognised as an RF2 file
+	 * @throws IOException if the file is named as RF2 but its header doesn't have the key column where expected
+	 */
+	private int getKeyFieldIndex(String fileName, String header) throws IOException {
+		TableSchema schema;
+		try {
+			schema = schemaFactory.createSchemaBean(Paths.get(fileName).getFileName().toString());
+		} catch (FileRecognitionException e) {
+			return -1;
+		}
+		if (schema == null) {
+			return -1;
+		}
+		int keyIndex = schema.getKeyFieldIndex();
+		String keyName = schema.getFields().get(keyIndex).getName();
+		String[] columns = header.split("\t", -1);
+		if (columns.length <= keyIndex || !keyName.equals(columns[keyIndex])) {
+			throw new IOException("Expected column " + keyIndex + " of " + fileName + " to be " + keyName + " but the header is: " + header);
+		}
+		return keyIndex;
+	}
+
+	int getPieceForKey(String key) {
+		// Spread the hash, as SCTIDs which differ only in their last few digits would otherwise cluster
+		int hash = key.hashCode() * 0x9E3779B9;
+		return Math.floorMod(hash ^ (hash >>> 16), splitCount);
+	}
+
+	private static String getField(String line, int index, String fileName) throws IOException {
+		int start = 0;
+		for (int x = 0; x < index; x++) {
+			start = line.indexOf('\t', start) + 1;
+			if (start == 0) {
+				throw new IOException("Row in " + fileName + " has no column " + index + ": " + line);
+			}
 		}
+		int end = line.indexOf('\t', start);
+		return end == -1 ? line.substring(start) : line.substring(start, end);
 	}
 }
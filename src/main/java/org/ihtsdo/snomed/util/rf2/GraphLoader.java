@@ -1,19 +1,33 @@
 package org.ihtsdo.snomed.util.rf2;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 import org.ihtsdo.snomed.util.pojo.Concept;
 import org.ihtsdo.snomed.util.pojo.Description;
+import org.ihtsdo.snomed.util.pojo.GraphCache;
+import org.ihtsdo.snomed.util.pojo.HierarchyIndex;
 import org.ihtsdo.snomed.util.pojo.Relationship;
+import org.ihtsdo.snomed.util.rf2.schema.ComponentType;
 import org.ihtsdo.snomed.util.rf2.schema.RF2SchemaConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Stopwatch;
+
 /**
  * Usage java -classpath /Users/Peter/code/snomed-utilities/target/snomed-utilities-1.0.10-SNAPSHOT.jar
  * org.ihtsdo.snomed.util.GraphLoader
@@ -29,42 +43,197 @@ public class GraphLoader implements RF2SchemaConstants {
 	private final String statedFile;
 	private final String inferredFile;
 	private final String descriptionFile;
+	// If set, the files above are the names of entries in this archive rather than paths on disk
+	private final Rf2Archive archive;
 	private String releaseDate;
+	private File cacheFile;
 
 	public GraphLoader(String conceptFile, String statedFile, String inferredFile, String descriptionFile) {
+		this(conceptFile, statedFile, inferredFile, descriptionFile, null);
+	}
+
+	/**
+	 * Loads the files straight from a release package
+	 * @param releaseType	Rf2Archive.SNAPSHOT or Rf2Archive.DELTA
+	 */
+	public GraphLoader(Rf2Archive archive, String releaseType) throws IOException {
+		this(archive.findEntryName(ComponentType.CONCEPT, releaseType),
+				archive.findEntryName(ComponentType.STATED_RELATIONSHIP, releaseType),
+				archive.findEntryName(ComponentType.RELATIONSHIP, releaseType),
+				archive.findEntryName(ComponentType.DESCRIPTION, releaseType),
+				archive);
+	}
+
+	private GraphLoader(String conceptFile, String statedFile, String inferredFile, String descriptionFile, Rf2Archive archive) {
 		this.conceptFile = conceptFile;
 		this.statedFile = statedFile;
 		this.inferredFile = inferredFile;
 		this.descriptionFile = descriptionFile;
+		this.archive = archive;
+	}
+
+	/**
+	 * @param cacheFile	if set, the built graph is restored from this file when it was written for the same
+	 *                  release files, and is written to it otherwise
+	 */
+	public void setCacheFile(File cacheFile) {
+		this.cacheFile = cacheFile;
 	}
 
 	public void loadRelationships(boolean storeLineItems) throws Exception {
+		loadRelationships(storeLineItems, false);
+	}
+
+	/**
+	 * @param parallel	if true, each RF2 file is parsed on its own worker thread and the rows are only
+	 *                  applied to the concept graph once all workers have finished
+	 */
+	public void loadRelationships(boolean storeLineItems, boolean parallel) throws Exception {
 		
 		releaseDate = determineReleaseDate(conceptFile);
+		Stopwatch totalTime = Stopwatch.createStarted();
+
+		// The cache does not hold the RF2 line items, so can't be used when they're wanted
+		GraphCache cache = null;
+		long[] checksums = null;
+		if (cacheFile != null && storeLineItems) {
+			LOGGER.info("Graph cache not used when loading full RF2 line items");
+		} else if (cacheFile != null) {
+			cache = new GraphCache(cacheFile);
+			checksums = calculateChecksums();
+			if (cache.load(releaseDate, checksums)) {
+				LOGGER.info("Loading complete in {} (from cache)", totalTime);
+				Concept.reportMemoryUsage();
+				return;
+			}
+		}
 
+		if (parallel) {
+			loadFilesInParallel(storeLineItems);
+		} else {
+			loadFilesSequentially(storeLineItems);
+		}
+
+		// Build the hierarchy indexes, and with them the concept depths, as part of the load rather than on first use
+		HierarchyIndex.get(CHARACTERISTIC.INFERRED);
+		HierarchyIndex.get(CHARACTERISTIC.STATED);
+
+		LOGGER.info("Loading complete in {} ({} mode)", totalTime, parallel ? "parallel" : "sequential");
+		Concept.reportMemoryUsage();
+
+		if (cache != null) {
+			cache.save(releaseDate, checksums);
+		}
+	}
+
+	private long[] calculateChecksums() throws IOException {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		String[] files = new String[] { conceptFile, statedFile, inferredFile, descriptionFile };
+		long[] checksums = new long[files.length];
+		for (int x = 0; x < files.length; x++) {
+			checksums[x] = archive == null ? calculateChecksum(files[x]) : archive.getChecksum(files[x]);
+		}
+		LOGGER.debug("Release file checksums calculated in {}", stopwatch);
+		return checksums;
+	}
+
+	private long calculateChecksum(String filePath) throws IOException {
+		CRC32 crc = new CRC32();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+		try (FileChannel channel = FileChannel.open(new File(filePath).toPath(), StandardOpenOption.READ)) {
+			while (channel.read(buffer) > 0) {
+				buffer.flip();
+				crc.update(buffer);
+				buffer.clear();
+			}
+		}
+		return crc.getValue();
+	}
+
+	private void loadFilesSequentially(boolean storeLineItems) throws Exception {
+		Stopwatch stopwatch = Stopwatch.createStarted();
 		LOGGER.debug("Loading Concept File: {}", conceptFile);
 		loadConceptFile(conceptFile);
+		LOGGER.info("Concept file loaded in {}", stopwatch);
 
+		stopwatch.reset().start();
 		LOGGER.debug("Loading Stated File: {}", statedFile);
 		loadRelationshipFile(statedFile, CHARACTERISTIC.STATED, storeLineItems);
+		LOGGER.info("Stated file loaded in {}", stopwatch);
 
+		stopwatch.reset().start();
 		LOGGER.debug("Loading Inferred File: {}", inferredFile);
 		loadRelationshipFile(inferredFile, CHARACTERISTIC.INFERRED, storeLineItems);
+		LOGGER.info("Inferred file loaded in {}", stopwatch);
 
+		stopwatch.reset().start();
 		LOGGER.debug("Loading Description File: {}", descriptionFile);
 		loadDescriptionFile(descriptionFile);
+		LOGGER.info("Description file loaded in {}", stopwatch);
+	}
 
-		LOGGER.debug("Populating inferred hierarchy depth - inferred concept hierarchy");
-		Concept hierarchyRoot = Concept.getConcept(SNOMED_ROOT_CONCEPT, CHARACTERISTIC.INFERRED);
-		populateHierarchyDepth(hierarchyRoot, 0);
-		
-		LOGGER.debug("Populating inferred hierarchy depth - stated concept hierarchy");
-		hierarchyRoot = Concept.getConcept(SNOMED_ROOT_CONCEPT, CHARACTERISTIC.STATED);
-		populateHierarchyDepth(hierarchyRoot, 0);
+	/**
+	 * Parsing the files is independent, but building the graph is not - the concept file has to be applied
+	 * before any relationship registers its concepts - so workers only collect the rows of interest and the
+	 * merge into the graph happens on this thread once they've all finished.
+	 */
+	private void loadFilesInParallel(boolean storeLineItems) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Future<List<String[]>> concepts = executor.submit(() -> readRows(conceptFile, "Concept", this::isFullyDefinedConcept));
+			Future<List<String[]>> stated = executor.submit(() -> readRows(statedFile, "Stated", this::isActiveRelationship));
+			Future<List<String[]>> inferred = executor.submit(() -> readRows(inferredFile, "Inferred", this::isActiveRelationship));
+			Future<List<String[]>> descriptions = executor.submit(() -> readRows(descriptionFile, "Description", this::isActiveFSN));
 
-		LOGGER.debug("Loading complete");
+			Stopwatch stopwatch = Stopwatch.createStarted();
+			for (String[] lineItems : getRows(concepts)) {
+				Concept.addFullyDefined(lineItems[CON_IDX_ID]);
+			}
+			LOGGER.info("Concept rows merged in {}", stopwatch);
+
+			stopwatch.reset().start();
+			for (String[] lineItems : getRows(stated)) {
+				addRelationship(lineItems, CHARACTERISTIC.STATED, storeLineItems);
+			}
+			LOGGER.info("Stated rows merged in {}", stopwatch);
+
+			stopwatch.reset().start();
+			for (String[] lineItems : getRows(inferred)) {
+				addRelationship(lineItems, CHARACTERISTIC.INFERRED, storeLineItems);
+			}
+			LOGGER.info("Inferred rows merged in {}", stopwatch);
+
+			stopwatch.reset().start();
+			for (String[] lineItems : getRows(descriptions)) {
+				new Description(lineItems);
+			}
+			LOGGER.info("Description rows merged in {}", stopwatch);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private List<String[]> getRows(Future<List<String[]>> rows) throws Exception {
+		try {
+			return rows.get();
+		} catch (ExecutionException e) {
+			throw (e.getCause() instanceof Exception cause) ? cause : e;
+		}
 	}
 
+	private List<String[]> readRows(String filePath, String fileDescription, Predicate<Rf2LineScanner> rowFilter) throws IOException {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		List<String[]> rows = new ArrayList<>();
+		try (Rf2LineScanner line = openScanner(filePath)) {
+			while (line.next()) {
+				if (rowFilter.test(line)) {
+					rows.add(line.getFields());
+				}
+			}
+		}
+		LOGGER.info("{} file parsed in {} - {} rows of interest", fileDescription, stopwatch, rows.size());
+		return rows;
+	}
 
 	private String determineReleaseDate(String filePath) throws Exception {
 		// Might have a date in the directory path, so trim to filename
@@ -77,80 +246,67 @@ public class GraphLoader implements RF2SchemaConstants {
 		throw new Exception("Failed to determine release date from " + filePath);
 	}
 
-	/**
-	 * Recurse hierarchy and set shortest path depth for all concepts
-	 */
-	private void populateHierarchyDepth(Concept startingPoint, int currentDepth) {
-		startingPoint.setDepth(currentDepth);
-		for (Concept child : startingPoint.getDescendents(Concept.IMMEDIATE_CHILDREN_ONLY, false)) {
-			populateHierarchyDepth(child, currentDepth + 1);
-		}
-	}
-
 	private void loadRelationshipFile(String filePath, CHARACTERISTIC characteristic, boolean storeLineItems)
 			throws Exception {
-		// Does this file exist and not as a directory?
-		File file = getFile(filePath);
-
-		try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-			String line;
-			boolean isFirstLine = true;
-			while ((line = br.readLine()) != null) {
-
-				if (!isFirstLine) {
-					String[] lineItems = line.split(FIELD_DELIMITER);
-					// Only store active relationships
-					if (lineItems[REL_IDX_ACTIVE].equals(ACTIVE_FLAG)) {
-						Relationship r = new Relationship(lineItems, characteristic, storeLineItems);
-						r.isActive(true);
-						if (lineItems[REL_IDX_EFFECTIVETIME].equals(this.releaseDate)) {
-							r.setChangedThisRelease(true);
-						}
-					}
-				} else {
-					isFirstLine = false;
-                }
-
+		try (Rf2LineScanner line = openScanner(filePath)) {
+			// Skip the header row
+			line.next();
+			while (line.next()) {
+				// Only store active relationships
+				if (isActiveRelationship(line)) {
+					addRelationship(line.getFields(), characteristic, storeLineItems);
+				}
 			}
 		}
 	}
+
+	private void addRelationship(String[] lineItems, CHARACTERISTIC characteristic, boolean storeLineItems) throws Exception {
+		Relationship r = new Relationship(lineItems, characteristic, storeLineItems);
+		r.isActive(true);
+		if (lineItems[REL_IDX_EFFECTIVETIME].equals(this.releaseDate)) {
+			r.setChangedThisRelease(true);
+		}
+	}
 	
 	private void loadConceptFile(String filePath) throws Exception {
-		File file = getFile(filePath);
-		try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-			String line;
-			while ((line = br.readLine()) != null) {
-				String[] lineItems = line.split(FIELD_DELIMITER);
-				// Only store active relationships
-				if (lineItems[CON_IDX_ACTIVE].equals(ACTIVE_FLAG) 
-					&& lineItems[CON_IDX_DEFINITIONSTATUSID].equals(FULLY_DEFINED_SCTID)) {
-					Concept.addFullyDefined(lineItems[CON_IDX_ID]);
+		try (Rf2LineScanner line = openScanner(filePath)) {
+			while (line.next()) {
+				if (isFullyDefinedConcept(line)) {
+					Concept.addFullyDefined(line.getString(CON_IDX_ID));
 				}
 			}
 		}
 	}
 	
 	private void loadDescriptionFile(String filePath) throws IOException {
-		File file = getFile(filePath);
-		try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-			String line;
-			while ((line = br.readLine()) != null) {
-				String[] lineItems = line.split(FIELD_DELIMITER);
-				// Only store active relationships
-				if (lineItems[DES_IDX_ACTIVE].equals(ACTIVE_FLAG) && lineItems[DES_IDX_TYPEID].equals(FULLY_SPECIFIED_NAME)) {
-					new Description(lineItems);
+		try (Rf2LineScanner line = openScanner(filePath)) {
+			while (line.next()) {
+				// Only store active FSNs
+				if (isActiveFSN(line)) {
+					new Description(line.getFields());
 				}
 			}
 		}
 	}
 
-	private File getFile(String filePath) throws IOException {
-		// Does this file exist and not as a directory?
-		File file = new File(filePath);
-		if (!file.exists() || file.isDirectory()) {
-			throw new IOException("Unable to read file " + filePath);
-		}
-		return file;
+	private Rf2LineScanner openScanner(String filePath) throws IOException {
+		return archive == null ? new Rf2LineScanner(filePath) : archive.openScanner(filePath);
+	}
+
+	// Filters are applied to the scanned line so rows that aren't wanted never have Strings created for them
+
+	private boolean isActiveRelationship(Rf2LineScanner line) {
+		// The header row fails this check on the active column, so needs no special treatment
+		return line.fieldEquals(REL_IDX_ACTIVE, ACTIVE_FLAG);
+	}
+
+	private boolean isFullyDefinedConcept(Rf2LineScanner line) {
+		return line.fieldEquals(CON_IDX_ACTIVE, ACTIVE_FLAG)
+				&& line.fieldEquals(CON_IDX_DEFINITIONSTATUSID, FULLY_DEFINED_SCTID);
+	}
+
+	private boolean isActiveFSN(Rf2LineScanner line) {
+		return line.fieldEquals(DES_IDX_ACTIVE, ACTIVE_FLAG) && line.fieldEquals(DES_IDX_TYPEID, FULLY_SPECIFIED_NAME);
 	}
 
 
@@ -0,0 +1,19 @@
+package org.ihtsdo.snomed.util.rf2;
+
+/**
+ * Identifies a relationship by its source, destination, type and group - the same fields its Type 5 UUID is
+ * generated from - so that relationships can be matched between files without hashing every row with SHA-1.
+ */
+public record RelationshipKey(long sourceId, long destinationId, long typeId, int group) {
+
+	@Override
+	public int hashCode() {
+		// Cheaper than the default record hash and spreads ids that differ only in their low digits
+		long h = sourceId * 0x9E3779B97F4A7C15L;
+		h = (h ^ destinationId) * 0x9E3779B97F4A7C15L;
+		h = (h ^ typeId) * 0x9E3779B97F4A7C15L;
+		h = (h ^ group) * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+}
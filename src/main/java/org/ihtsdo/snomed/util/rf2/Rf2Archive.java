@@ -0,0 +1,125 @@
+package org.ihtsdo.snomed.util.rf2;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.ihtsdo.snomed.util.rf2.schema.ComponentType;
+import org.ihtsdo.snomed.util.rf2.schema.FileRecognitionException;
+import org.ihtsdo.snomed.util.rf2.schema.SchemaFactory;
+import org.ihtsdo.snomed.util.rf2.schema.TableSchema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A release package read in place, so that the RF2 files it contains can be streamed
+ * to an Rf2LineScanner without first being extracted to disk.
+ */
+public class Rf2Archive implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(Rf2Archive.class);
+
+	public static final String ZIP_EXTENSION = ".zip";
+	public static final String SNAPSHOT = "Snapshot";
+	public static final String DELTA = "Delta";
+
+	private final File archiveFile;
+	private final ZipFile zipFile;
+	private final SchemaFactory schemaFactory = new SchemaFactory();
+
+	public Rf2Archive(File archiveFile) throws IOException {
+		if (!archiveFile.exists() || archiveFile.isDirectory()) {
+			throw new IOException("Unable to read archive " + archiveFile.getPath());
+		}
+		this.archiveFile = archiveFile;
+		zipFile = new ZipFile(archiveFile);
+	}
+
+	public Rf2Archive(String archivePath) throws IOException {
+		this(new File(archivePath));
+	}
+
+	public static boolean isArchive(String filePath) {
+		return filePath.toLowerCase().endsWith(ZIP_EXTENSION);
+	}
+
+	/**
+	 * Finds the file of the given component type and release type (Snapshot or Delta) by working through the
+	 * file names in the archive.
+	 * @return the full name of the zip entry, including any directories
+	 * @throws IOException if no such file is present
+	 */
+	public String findEntryName(ComponentType componentType, String releaseType) throws IOException {
+		Enumeration<? extends ZipEntry> entries = zipFile.entries();
+		while (entries.hasMoreElements()) {
+			ZipEntry entry = entries.nextElement();
+			if (!entry.isDirectory() && isReleaseFile(getFileName(entry.getName()), componentType, releaseType)) {
+				LOGGER.debug("Found {} {} file {} in {}", componentType, releaseType, entry.getName(), archiveFile.getName());
+				return entry.getName();
+			}
+		}
+		throw new IOException("No " + componentType + " " + releaseType + " file found in " + archiveFile.getPath());
+	}
+
+	private boolean isReleaseFile(String fileName, ComponentType componentType, String releaseType) throws IOException {
+		// Check the release type before asking for a schema, as the schema does not distinguish Snapshot from Delta
+		// and the factory logs every file it does not recognise (eg Readme files)
+		String[] nameParts = fileName.split(SchemaFactory.FILE_NAME_SEPARATOR);
+		if (nameParts.length != 5 || !nameParts[2].startsWith(releaseType)) {
+			return false;
+		}
+		try {
+			TableSchema schema = schemaFactory.createSchemaBean(fileName);
+			return schema != null && schema.getComponentType() == componentType;
+		} catch (FileRecognitionException e) {
+			throw new IOException("Unable to recognise " + fileName + " in " + archiveFile.getPath(), e);
+		}
+	}
+
+	/**
+	 * @return the CRC-32 of the uncompressed entry, as recorded in the archive
+	 */
+	public long getChecksum(String entryName) throws IOException {
+		ZipEntry entry = zipFile.getEntry(entryName);
+		if (entry == null) {
+			throw new IOException("Unable to find " + entryName + " in " + archiveFile.getPath());
+		}
+		return entry.getCrc();
+	}
+
+	public boolean containsEntry(String entryName) {
+		return entryName != null && zipFile.getEntry(entryName) != null;
+	}
+
+	/**
+	 * Streams the entry rather than extracting it. ZipFile allows several entries to be read at once,
+	 * so scanners may be opened on different threads.
+	 */
+	public Rf2LineScanner openScanner(String entryName) throws IOException {
+		ZipEntry entry = zipFile.getEntry(entryName);
+		if (entry == null) {
+			throw new IOException("Unable to find " + entryName + " in " + archiveFile.getPath());
+		}
+		return new Rf2LineScanner(zipFile.getInputStream(entry), getFileName(entryName));
+	}
+
+	/**
+	 * @return the name of the entry without any directories
+	 */
+	public static String getFileName(String entryName) {
+		return entryName.substring(entryName.lastIndexOf("/") + 1);
+	}
+
+	public File getArchiveFile() {
+		return archiveFile;
+	}
+
+	@Override
+	public void close() throws IOException {
+		zipFile.close();
+	}
+
+}
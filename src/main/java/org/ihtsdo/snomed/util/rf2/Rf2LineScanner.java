@@ -0,0 +1,295 @@
+package org.ihtsdo.snomed.util.rf2;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a tab delimited RF2 file through a memory mapped window, one line at a time. Each call to next() only
+ * records where the fields of the current line start and end, so callers can check a field (eg the active flag)
+ * or parse it as a number without a String being created. Files larger than a single mapping can address are
+ * read by moving the window along the file. Streams (eg a zip entry) are read through a buffer in the same way.
+ *
+ * Usage: while (scanner.next()) { if (scanner.fieldEquals(IDX_ACTIVE, ACTIVE_FLAG)) {...} }
+ */
+public class Rf2LineScanner implements Closeable {
+
+	// Maximum number of bytes mapped at any one time. A single line must fit within this.
+	static final int WINDOW_SIZE = 256 * 1024 * 1024;
+	// Initial buffer size when reading from a stream. Grows if a line does not fit.
+	static final int STREAM_BUFFER_SIZE = 1024 * 1024;
+	// Long.MAX_VALUE has 19 digits, so anything shorter can't overflow
+	private static final int MAX_SAFE_DIGITS = 18;
+
+	private static final byte TAB_BYTE = '\t';
+	private static final byte LF_BYTE = '\n';
+	private static final byte CR_BYTE = '\r';
+
+	private final String name;
+	private final FileChannel channel;
+	private final InputStream in;
+	private final long fileSize;
+	private final int windowSize;
+
+	private ByteBuffer window;
+	private long windowStart = 0;
+	private int position = 0;
+	private boolean endOfInput = false;
+
+	private int[] fieldStarts = new int[16];
+	private int[] fieldEnds = new int[16];
+	private int fieldCount = 0;
+	private int lineStart;
+	private int lineEnd;
+
+	public Rf2LineScanner(File file) throws IOException {
+		this(file, WINDOW_SIZE);
+	}
+
+	Rf2LineScanner(File file, int windowSize) throws IOException {
+		if (!file.exists() || file.isDirectory()) {
+			throw new IOException("Unable to read file " + file.getPath());
+		}
+		name = file.getName();
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		in = null;
+		fileSize = channel.size();
+		this.windowSize = windowSize;
+		mapWindow(0);
+	}
+
+	public Rf2LineScanner(String filePath) throws IOException {
+		this(new File(filePath));
+	}
+
+	/**
+	 * @param name	used to identify the stream in any error reported
+	 */
+	public Rf2LineScanner(InputStream in, String name) throws IOException {
+		this(in, name, STREAM_BUFFER_SIZE);
+	}
+
+	Rf2LineScanner(InputStream in, String name, int bufferSize) throws IOException {
+		this.name = name;
+		this.in = in;
+		channel = null;
+		fileSize = -1;
+		windowSize = 0;
+		window = ByteBuffer.wrap(new byte[bufferSize], 0, 0);
+		readMore(0);
+	}
+
+	private void mapWindow(long start) throws IOException {
+		windowStart = start;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, fileSize - start));
+		position = 0;
+	}
+
+	/**
+	 * Keeps the bytes from keepFrom onwards and fills the rest of the buffer from the stream,
+	 * doubling the buffer if it is already full of a single line.
+	 */
+	private void readMore(int keepFrom) throws IOException {
+		byte[] buffer = window.array();
+		int remaining = window.limit() - keepFrom;
+		if (keepFrom == 0 && remaining == buffer.length) {
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		} else {
+			System.arraycopy(buffer, keepFrom, buffer, 0, remaining);
+		}
+		int filled = remaining;
+		while (filled < buffer.length) {
+			int read = in.read(buffer, filled, buffer.length - filled);
+			if (read < 0) {
+				endOfInput = true;
+				break;
+			}
+			filled += read;
+		}
+		window = ByteBuffer.wrap(buffer, 0, filled);
+		windowStart += keepFrom;
+		position = 0;
+	}
+
+	private boolean isLastWindow() {
+		return channel == null ? endOfInput : windowStart + window.limit() == fileSize;
+	}
+
+	/**
+	 * Moves on to the next line of the file.
+	 * @return false once there are no more lines to read
+	 */
+	public boolean next() throws IOException {
+		while (true) {
+			int limit = window.limit();
+			boolean isLastWindow = isLastWindow();
+			if (position >= limit && isLastWindow) {
+				fieldCount = 0;
+				return false;
+			}
+
+			fieldCount = 0;
+			lineStart = position;
+			int fieldStart = position;
+			int idx = position;
+			while (idx < limit) {
+				byte b = window.get(idx);
+				if (b == TAB_BYTE) {
+					addField(fieldStart, idx);
+					fieldStart = idx + 1;
+				} else if (b == LF_BYTE) {
+					break;
+				}
+				idx++;
+			}
+
+			if (idx < limit || isLastWindow) {
+				// Either found the end of the line, or the file ends without a line terminator
+				lineEnd = (idx > fieldStart && window.get(idx - 1) == CR_BYTE) ? idx - 1 : idx;
+				addField(fieldStart, lineEnd);
+				position = idx + 1;
+				return true;
+			}
+
+			// Line runs past the end of the window, so start a new window at the beginning of this line
+			if (channel == null) {
+				readMore(lineStart);
+			} else if (lineStart == 0) {
+				throw new IOException("Line starting at byte " + windowStart + " in " + name + " exceeds window size of " + windowSize);
+			} else {
+				mapWindow(windowStart + lineStart);
+			}
+		}
+	}
+
+	private void addField(int start, int end) {
+		if (fieldCount == fieldStarts.length) {
+			fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+			fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+		}
+		fieldStarts[fieldCount] = start;
+		fieldEnds[fieldCount] = end;
+		fieldCount++;
+	}
+
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	private void checkField(int fieldIdx) {
+		if (fieldIdx < 0 || fieldIdx >= fieldCount) {
+			throw new IndexOutOfBoundsException("Field " + fieldIdx + " requested from line with " + fieldCount + " fields");
+		}
+	}
+
+	/**
+	 * Compares a field against an (ASCII) value without decoding the field.
+	 */
+	public boolean fieldEquals(int fieldIdx, String value) {
+		if (fieldIdx >= fieldCount) {
+			return false;
+		}
+		int start = fieldStarts[fieldIdx];
+		int length = fieldEnds[fieldIdx] - start;
+		if (length != value.length()) {
+			return false;
+		}
+		for (int x = 0; x < length; x++) {
+			if (window.get(start + x) != value.charAt(x)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parses a field of digits, eg an SCTID, directly from the mapped bytes.
+	 * @throws NumberFormatException if the field is empty, contains anything other than digits or is too large for a long
+	 */
+	public long getLong(int fieldIdx) {
+		checkField(fieldIdx);
+		int start = fieldStarts[fieldIdx];
+		int end = fieldEnds[fieldIdx];
+		if (start == end) {
+			throw new NumberFormatException("Empty field " + fieldIdx + " when number expected");
+		}
+		long value = 0;
+		for (int idx = start; idx < end; idx++) {
+			int digit = window.get(idx) - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException("Field " + fieldIdx + " is not numeric: " + getString(fieldIdx));
+			}
+			if (idx - start < MAX_SAFE_DIGITS) {
+				value = value * 10 + digit;
+			} else {
+				try {
+					value = Math.addExact(Math.multiplyExact(value, 10), digit);
+				} catch (ArithmeticException e) {
+					throw new NumberFormatException("Field " + fieldIdx + " is too large for a long: " + getString(fieldIdx));
+				}
+			}
+		}
+		return value;
+	}
+
+	public int getInt(int fieldIdx) {
+		long value = getLong(fieldIdx);
+		if (value > Integer.MAX_VALUE) {
+			throw new NumberFormatException("Field " + fieldIdx + " is too large for an int: " + value);
+		}
+		return (int) value;
+	}
+
+	public String getString(int fieldIdx) {
+		checkField(fieldIdx);
+		return decode(fieldStarts[fieldIdx], fieldEnds[fieldIdx]);
+	}
+
+	/**
+	 * @return all fields of the current line, as String.split(FIELD_DELIMITER) would have returned them
+	 */
+	public String[] getFields() {
+		// split() drops trailing empty fields, so do the same for consistency with the loaders that used it
+		int count = fieldCount;
+		while (count > 0 && fieldStarts[count - 1] == fieldEnds[count - 1]) {
+			count--;
+		}
+		String[] fields = new String[Math.max(count, 1)];
+		if (count == 0) {
+			fields[0] = "";
+		}
+		for (int x = 0; x < count; x++) {
+			fields[x] = decode(fieldStarts[x], fieldEnds[x]);
+		}
+		return fields;
+	}
+
+	/**
+	 * @return the current line, excluding its line terminator
+	 */
+	public String getLine() {
+		return decode(lineStart, lineEnd);
+	}
+
+	private String decode(int start, int end) {
+		byte[] bytes = new byte[end - start];
+		window.get(start, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+		} else {
+			in.close();
+		}
+	}
+
+}
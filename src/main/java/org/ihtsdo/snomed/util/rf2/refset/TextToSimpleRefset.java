@@ -1,19 +1,14 @@
 package org.ihtsdo.snomed.util.rf2.refset;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.nio.charset.StandardCharsets;
 import java.util.UUID;
 
 import org.ihtsdo.snomed.util.SnomedUtilException;
 import org.ihtsdo.snomed.util.SnomedUtils;
+import org.ihtsdo.snomed.util.rf2.Rf2LineScanner;
 import org.ihtsdo.snomed.util.rf2.schema.RF2SchemaConstants;
+import org.ihtsdo.util.FileAppenders;
 
 /**
  * Takes a flat file of Concept SCTIDs and converts
@@ -40,10 +35,10 @@ public class TextToSimpleRefset implements RF2SchemaConstants{
 	
 	private void processFile() throws IOException, SnomedUtilException {
 		writeToRF2File(outputFile, simpleRefsetHeader);
-		try (BufferedReader br = new BufferedReader(new FileReader(inputFile))) {
-			String sctidStr;
-			while ((sctidStr = br.readLine()) != null) {
+		try (Rf2LineScanner line = new Rf2LineScanner(inputFile)) {
+			while (line.next()) {
 				//For now, just expecting a single concept sctid on each line
+				String sctidStr = line.getString(0);
 				//For concept SCTID
 				String errMsg = SnomedUtils.isValid(sctidStr, PartionIdentifier.CONCEPT);
 				if (errMsg != null) {
@@ -54,6 +49,7 @@ public class TextToSimpleRefset implements RF2SchemaConstants{
 				writeToRF2File(outputFile, columns);
 			}
 		}
+		FileAppenders.close(outputFile.getPath());
 		print ("Process complete.  See output file " + outputFile.getAbsolutePath());
 	}
 
@@ -106,10 +102,7 @@ public class TextToSimpleRefset implements RF2SchemaConstants{
 	}
 	
 	protected void writeToRF2File(File outputFile, String[] columns) {
-		try(	OutputStreamWriter osw = new OutputStreamWriter(new FileOutputStream(outputFile, true), StandardCharsets.UTF_8);
-				BufferedWriter bw = new BufferedWriter(osw);
-				PrintWriter out = new PrintWriter(bw))
-		{
+		try {
 			StringBuilder line = new StringBuilder();
 			for (int x=0; x<columns.length; x++) {
 				if (x > 0) {
@@ -117,7 +110,7 @@ public class TextToSimpleRefset implements RF2SchemaConstants{
 				}
 				line.append(columns[x]);
 			}
-			out.print(line + LINE_DELIMITER);
+			FileAppenders.append(outputFile.getPath(), line + LINE_DELIMITER);
 		} catch (Exception e) {
 			print ("Unable to output report rf2 line due to " + e.getMessage());
 		}
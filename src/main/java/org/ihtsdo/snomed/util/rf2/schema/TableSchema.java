@@ -46,4 +46,30 @@ public class TableSchema {
 		return fields;
 	}
 
+	/**
+	 * @return the position of the named field, or -1 if there is no such field
+	 */
+	public int getFieldIndex(String name) {
+		for (int i = 0; i < fields.size(); i++) {
+			if (name.equals(fields.get(i).getName())) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the position of the field identifying the component each row belongs to - the concept itself, the
+	 * concept described, the source of a relationship or the component referenced by a refset member - or -1 if
+	 * there is no such field
+	 */
+	public int getKeyFieldIndex() {
+		return switch (componentType) {
+			case CONCEPT -> getFieldIndex("id");
+			case DESCRIPTION, TEXT_DEFINITION -> getFieldIndex("conceptId");
+			case STATED_RELATIONSHIP, RELATIONSHIP, RELATIONSHIP_CONCRETE_VALUES -> getFieldIndex("sourceId");
+			case REFSET, IDENTIFIER -> getFieldIndex("referencedComponentId");
+		};
+	}
+
 }
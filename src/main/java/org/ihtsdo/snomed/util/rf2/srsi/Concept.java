@@ -2,15 +2,20 @@ package org.ihtsdo.snomed.util.rf2.srsi;
 
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
 
-import org.ihtsdo.snomed.util.Type5UuidFactory;
+import org.ihtsdo.snomed.util.ConcurrentType5UuidFactory;
 import org.ihtsdo.snomed.util.rf2.srsi.Relationship.CHARACTERISTIC;
+import org.ihtsdo.util.LongObjectMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,7 +25,7 @@ public class Concept implements Comparable<Concept> {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(Concept.class);
 
-	private static final Type5UuidFactory type5UuidFactory;
+	private static final ConcurrentType5UuidFactory type5UuidFactory;
 
 	private int maxGroupId = 0; // How many groups are defined for this source concept?
 	private int replacmentNumber = 0; // counter to track/match stated relationships with their replacements
@@ -29,7 +34,7 @@ public class Concept implements Comparable<Concept> {
 
 	static {
 		try {
-			type5UuidFactory = new Type5UuidFactory();
+			type5UuidFactory = new ConcurrentType5UuidFactory();
 		} catch (Exception e) {
 			throw new RuntimeException("Unable to initialise UUID factory", e);
 		}
@@ -38,42 +43,68 @@ public class Concept implements Comparable<Concept> {
 	Set<Concept> parents = new TreeSet<>();
 	TreeSet<Relationship> attributes = new TreeSet<>();
 
+	// All ancestor ids in ascending order, calculated when first needed and recalculated if the hierarchy has changed since
+	private volatile AncestorIds ancestorIds;
+	private static volatile int hierarchyVersion = 0;
+
+	private record AncestorIds(int hierarchyVersion, long[] ids) {}
+
+	// Attributes by type, by group and by both, built when first needed and discarded whenever an attribute is added.
+	// Each list keeps the attributes' natural order, so lookups return matches in the same order as a scan would.
+	private volatile AttributeIndex attributeIndex;
+	private static final LongAdder scansAvoided = new LongAdder();
+
+	private record TypeAndGroup(long typeId, int group) {}
+
+	private record AttributeIndex(Map<Long, List<Relationship>> byType, Map<Integer, List<Relationship>> byGroup,
+			Map<TypeAndGroup, List<Relationship>> byTypeAndGroup) {}
+
 	public Concept(Long id) {
 		this.sctId = id;
 	}
 
-	private static final Map<Long, Concept> allStatedConcepts = new HashMap<>();
-	private static final Map<Long, Concept> allInferredConcepts = new HashMap<>();
+	private static final LongObjectMap<Concept> allStatedConcepts = new LongObjectMap<>();
+	private static final LongObjectMap<Concept> allInferredConcepts = new LongObjectMap<>();
+
+	private static LongObjectMap<Concept> getConceptMap(CHARACTERISTIC characteristic) {
+		return characteristic.equals(Relationship.CHARACTERISTIC.STATED) ? allStatedConcepts : allInferredConcepts;
+	}
+
+	private static Concept getOrCreateConcept(LongObjectMap<Concept> allConcepts, long sctId) {
+		Concept concept = allConcepts.get(sctId);
+		if (concept == null) {
+			concept = new Concept(sctId);
+			allConcepts.put(sctId, concept);
+		}
+		return concept;
+	}
+
+	/**
+	 * Forgets every concept in both graphs, so that another set of relationship files can be loaded
+	 */
+	static void clearAll() {
+		allStatedConcepts.clear();
+		allInferredConcepts.clear();
+		hierarchyVersion++;
+	}
 
 	public static void addRelationship(Relationship relationship, Relationship.CHARACTERISTIC characteristic) throws Exception {
 
-		Map<Long, Concept> allConcepts = characteristic.equals(Relationship.CHARACTERISTIC.STATED) ? allStatedConcepts
-				: allInferredConcepts;
+		LongObjectMap<Concept> allConcepts = getConceptMap(characteristic);
 
 		// Do we know about the source concept?
-		Concept sourceConcept;
-		if (!allConcepts.containsKey(relationship.getSourceId())) {
-			sourceConcept = new Concept(relationship.getSourceId());
-			allConcepts.put(relationship.getSourceId(), sourceConcept);
-		} else {
-			sourceConcept = allConcepts.get(relationship.getSourceId());
-		}
+		Concept sourceConcept = getOrCreateConcept(allConcepts, relationship.getSourceId());
 		relationship.setSourceConcept(sourceConcept);
 
 		// Do we already know about the destination ?
-		Concept destinationConcept;
-		Long destinationId = relationship.getDestinationId();
-		if (!allConcepts.containsKey(destinationId)) {
-			destinationConcept = new Concept(destinationId);
-			allConcepts.put(destinationId, destinationConcept);
-		} else {
-			destinationConcept = allConcepts.get(destinationId);
-		}
+		Concept destinationConcept = getOrCreateConcept(allConcepts, relationship.getDestinationId());
 		relationship.setDestinationConcept(destinationConcept);
 
 		// We're only interested in 'Is a' relationships for the graph
 		if (relationship.isISA()) {
 			sourceConcept.parents.add(destinationConcept);
+			// Any ancestors worked out so far may no longer hold
+			hierarchyVersion++;
 		}
 
 		// But all relationships get recorded as attributes
@@ -82,6 +113,7 @@ public class Concept implements Comparable<Concept> {
 
 	private void addAttribute(Relationship relationship) {
 		attributes.add(relationship);
+		attributeIndex = null;
 		if (relationship.getGroup() > this.maxGroupId) {
 			this.maxGroupId = relationship.getGroup();
 		}
@@ -93,8 +125,7 @@ public class Concept implements Comparable<Concept> {
 	 * @param characteristic	which graph to check
 	 */
 	public static void ensureParents(CHARACTERISTIC characteristic) {
-		Map<Long, Concept> allConcepts = characteristic.equals(Relationship.CHARACTERISTIC.STATED) ? allStatedConcepts
-				: allInferredConcepts;
+		LongObjectMap<Concept> allConcepts = getConceptMap(characteristic);
 
 		List<Concept> noParents = new ArrayList<>();
 		for (Concept thisConcept : allConcepts.values()) {
@@ -110,6 +141,48 @@ public class Concept implements Comparable<Concept> {
 
 	}
 
+	/**
+	 * Log how many full scans of a concept's attributes have been replaced by index lookups
+	 */
+	public static void reportIndexUsage() {
+		LOGGER.info("Attribute scans avoided by type / group indexes: {}", scansAvoided.sum());
+	}
+
+	private AttributeIndex getAttributeIndex() {
+		AttributeIndex index = attributeIndex;
+		if (index == null) {
+			Map<Long, List<Relationship>> byType = new HashMap<>();
+			Map<Integer, List<Relationship>> byGroup = new HashMap<>();
+			Map<TypeAndGroup, List<Relationship>> byTypeAndGroup = new HashMap<>();
+			for (Relationship thisRelationship : attributes) {
+				byType.computeIfAbsent(thisRelationship.getTypeId(), k -> new ArrayList<>()).add(thisRelationship);
+				byGroup.computeIfAbsent(thisRelationship.getGroup(), k -> new ArrayList<>()).add(thisRelationship);
+				byTypeAndGroup.computeIfAbsent(new TypeAndGroup(thisRelationship.getTypeId(), thisRelationship.getGroup()),
+						k -> new ArrayList<>()).add(thisRelationship);
+			}
+			index = new AttributeIndex(byType, byGroup, byTypeAndGroup);
+			attributeIndex = index;
+		}
+		return index;
+	}
+
+	private static List<Relationship> indexed(List<Relationship> relationships) {
+		scansAvoided.increment();
+		return relationships == null ? Collections.emptyList() : relationships;
+	}
+
+	private List<Relationship> attributesOfType(long typeId) {
+		return indexed(getAttributeIndex().byType().get(typeId));
+	}
+
+	private List<Relationship> attributesInGroup(int group) {
+		return indexed(getAttributeIndex().byGroup().get(group));
+	}
+
+	private List<Relationship> attributesOfTypeInGroup(long typeId, int group) {
+		return indexed(getAttributeIndex().byTypeAndGroup().get(new TypeAndGroup(typeId, group)));
+	}
+
 	@Override
 	public int compareTo(Concept other) {
 		return this.sctId.compareTo(other.sctId);
@@ -124,9 +197,16 @@ public class Concept implements Comparable<Concept> {
 	}
 
 	public static Concept getConcept(Long conceptId, CHARACTERISTIC characteristic) {
-		Map<Long, Concept> allConcepts = characteristic.equals(Relationship.CHARACTERISTIC.STATED) ? allStatedConcepts
-				: allInferredConcepts;
-		return allConcepts.get(conceptId);
+		return getConceptMap(characteristic).get(conceptId);
+	}
+
+	/**
+	 * Log the memory taken by the concept registry for each view.
+	 */
+	public static void reportMemoryUsage() {
+		for (CHARACTERISTIC characteristic : new CHARACTERISTIC[] { CHARACTERISTIC.STATED, CHARACTERISTIC.INFERRED }) {
+			LOGGER.info(getConceptMap(characteristic).describeMemory(characteristic + " concept registry"));
+		}
 	}
 
 
@@ -148,7 +228,7 @@ public class Concept implements Comparable<Concept> {
 
 		if (secondPassMatches.size() == 0) {
 			for (Relationship thisRelationship : firstPassMatches) {
-				if (thisRelationship.getDestinationConcept().hasParent(statedDestinationConcept)) {
+				if (thisRelationship.getDestinationConcept().isDescendantOf(statedDestinationConcept)) {
 					secondPassMatches.add(thisRelationship);
 				}
 			}
@@ -169,14 +249,39 @@ public class Concept implements Comparable<Concept> {
 	}
 
 	public boolean hasParent(Concept targetConcept) {
-		// Recurse through my parents to find if one of them is the targetConcept
-		// Will stop at the root concept, returning false, as it has no parents
-		for (Concept thisParent : parents) {
-			if (thisParent.equals(targetConcept) || thisParent.hasParent(targetConcept)) {
-				return true;
+		return isDescendantOf(targetConcept);
+	}
+
+	public boolean isDescendantOf(Concept ancestor) {
+		return ancestor != null && isDescendantOf(ancestor.getSctId());
+	}
+
+	/**
+	 * @return true if the concept with this id is a parent of this concept, or an ancestor of one of its parents
+	 */
+	public boolean isDescendantOf(long ancestorId) {
+		return Arrays.binarySearch(getAncestorIds(), ancestorId) >= 0;
+	}
+
+	/**
+	 * @return the ids of all ancestors in ascending order, built from the parents' own (remembered) ancestors
+	 */
+	long[] getAncestorIds() {
+		int currentVersion = hierarchyVersion;
+		AncestorIds known = ancestorIds;
+		if (known == null || known.hierarchyVersion() != currentVersion) {
+			Set<Long> ancestors = new HashSet<>();
+			for (Concept thisParent : parents) {
+				ancestors.add(thisParent.getSctId());
+				for (long ancestorId : thisParent.getAncestorIds()) {
+					ancestors.add(ancestorId);
+				}
 			}
+			long[] ids = ancestors.stream().mapToLong(Long::longValue).sorted().toArray();
+			known = new AncestorIds(currentVersion, ids);
+			ancestorIds = known;
 		}
-		return false;
+		return known.ids();
 	}
 
 	/**
@@ -204,13 +309,7 @@ public class Concept implements Comparable<Concept> {
 
 	public List<Relationship> findMatchingRelationships(Long typeId, int group) {
 		//find relationships of this concept with the same type and group
-		List<Relationship> matches = new ArrayList<>();
-		for (Relationship thisRelationship : attributes) {
-			if (thisRelationship.isType(typeId) && thisRelationship.isGroup(group)) {
-				matches.add(thisRelationship);
-			}
-		}
-		return matches;
+		return new ArrayList<>(attributesOfTypeInGroup(typeId, group));
 	}
 
 	/**
@@ -224,10 +323,10 @@ public class Concept implements Comparable<Concept> {
 			boolean allowChildOfType) {
 		// find relationships of this concept with the same type and group
 		Concept inferredDestination = Concept.getConcept(destinationId, CHARACTERISTIC.INFERRED);
+		List<Relationship> sameTypeAndGroup = attributesOfTypeInGroup(typeId, group);
 		List<Relationship> matches = new ArrayList<>();
-		for (Relationship thisRelationship : attributes) {
-			if (thisRelationship.isGroup(group) && thisRelationship.isType(typeId)
-					&& thisRelationship.getDestinationId().equals(destinationId)) {
+		for (Relationship thisRelationship : sameTypeAndGroup) {
+			if (thisRelationship.getDestinationId() == destinationId) {
 				matches.add(thisRelationship);
 			}
 		}
@@ -235,9 +334,8 @@ public class Concept implements Comparable<Concept> {
 		// Are we allowing more proximate matches on destination?
 		if (allowChildOfDestination && matches.size() == 0) {
 			// First allow more proximate destination
-			for (Relationship thisRelationship : attributes) {
-				if (thisRelationship.isGroup(group) && thisRelationship.isType(typeId)
-						&& thisRelationship.destinationConcept.hasParent(inferredDestination)) {
+			for (Relationship thisRelationship : sameTypeAndGroup) {
+				if (thisRelationship.destinationConcept.isDescendantOf(inferredDestination)) {
 					matches.add(thisRelationship);
 				}
 			}
@@ -247,10 +345,10 @@ public class Concept implements Comparable<Concept> {
 		if (allowChildOfType && matches.size() == 0) {
 			// Now allow more proximate type
 			Concept targetType = Concept.getConcept(typeId, CHARACTERISTIC.INFERRED);
-			for (Relationship thisRelationship : attributes) {
+			for (Relationship thisRelationship : attributesInGroup(group)) {
 				Concept potentialType = Concept.getConcept(thisRelationship.getTypeId(), CHARACTERISTIC.INFERRED);
-				if (thisRelationship.isGroup(group) && thisRelationship.destinationConcept.equals(inferredDestination)
-						&& potentialType.hasParent(targetType)) {
+				if (thisRelationship.destinationConcept.equals(inferredDestination)
+						&& potentialType.isDescendantOf(targetType)) {
 					matches.add(thisRelationship);
 				}
 			}
@@ -262,9 +360,10 @@ public class Concept implements Comparable<Concept> {
 	public List<Relationship> findMatchingRelationships(Long typeId, Long destinationId, boolean allowChildOfDestination,
 			boolean allowChildOfType) {
 		// find relationships of this concept with the same type and destination
+		List<Relationship> sameType = attributesOfType(typeId);
 		List<Relationship> matches = new ArrayList<>();
-		for (Relationship thisRelationship : attributes) {
-			if (thisRelationship.isType(typeId) && thisRelationship.getDestinationId().equals(destinationId)) {
+		for (Relationship thisRelationship : sameType) {
+			if (thisRelationship.getDestinationId() == destinationId) {
 				matches.add(thisRelationship);
 			}
 		}
@@ -275,7 +374,7 @@ public class Concept implements Comparable<Concept> {
 		if (allowChildOfType) {
 			for (Relationship thisRelationship : attributes) {
 				Concept potentialType = Concept.getConcept(thisRelationship.getTypeId(), CHARACTERISTIC.INFERRED);
-				if (thisRelationship.destinationConcept.equals(inferredDestination) && potentialType.hasParent(targetType)) {
+				if (thisRelationship.destinationConcept.equals(inferredDestination) && potentialType.isDescendantOf(targetType)) {
 					matches.add(thisRelationship);
 				}
 			}
@@ -283,8 +382,8 @@ public class Concept implements Comparable<Concept> {
 
 		// Are we allowing more proximate matches on destination?
 		if (allowChildOfDestination) {
-			for (Relationship thisRelationship : attributes) {
-				if (thisRelationship.isType(typeId) && thisRelationship.destinationConcept.hasParent(inferredDestination)) {
+			for (Relationship thisRelationship : sameType) {
+				if (thisRelationship.destinationConcept.isDescendantOf(inferredDestination)) {
 					matches.add(thisRelationship);
 				}
 			}
@@ -294,7 +393,7 @@ public class Concept implements Comparable<Concept> {
 		if (allowChildOfDestination && allowChildOfType) {
 			for (Relationship thisRelationship : attributes) {
 				Concept potentialType = Concept.getConcept(thisRelationship.getTypeId(), CHARACTERISTIC.INFERRED);
-				if (potentialType.hasParent(targetType) && thisRelationship.destinationConcept.hasParent(inferredDestination)) {
+				if (potentialType.isDescendantOf(targetType) && thisRelationship.destinationConcept.isDescendantOf(inferredDestination)) {
 					matches.add(thisRelationship);
 				}
 			}
@@ -306,12 +405,10 @@ public class Concept implements Comparable<Concept> {
 	public List<Relationship> findMatchingRelationships(int group, boolean filterIsAs) {
 		// find relationships of this concept with the group
 		List<Relationship> matches = new ArrayList<>();
-		for (Relationship thisRelationship : attributes) {
-			if (thisRelationship.isGroup(group)) {
-				// Are we filtering out Is A relationships?
-				if (!filterIsAs || (filterIsAs && !thisRelationship.isType(Relationship.ISA_ID))) {
-					matches.add(thisRelationship);
-				}
+		for (Relationship thisRelationship : attributesInGroup(group)) {
+			// Are we filtering out Is A relationships?
+			if (!filterIsAs || (filterIsAs && !thisRelationship.isType(Relationship.ISA_ID))) {
+				matches.add(thisRelationship);
 			}
 		}
 		return matches;
@@ -324,10 +421,8 @@ public class Concept implements Comparable<Concept> {
 	 */
 	public String getTriplesHash(int group) throws UnsupportedEncodingException {
 		String stringToHash = "";
-		for (Relationship thisRelationship : attributes) {
-			if (thisRelationship.isGroup(group)) {
-				stringToHash += thisRelationship.getTripleString();
-			}
+		for (Relationship thisRelationship : attributesInGroup(group)) {
+			stringToHash += thisRelationship.getTripleString();
 		}
 		return type5UuidFactory.get(stringToHash).toString();
 	}
@@ -355,24 +450,18 @@ public class Concept implements Comparable<Concept> {
 		// Work through all the groups
 		for (int groupId = 1; groupId <= this.maxGroupId; groupId++) {
 			boolean allMatch = true;
-			List<Relationship> thisGroupRelationships = findMatchingRelationships(groupId, false);
 			// Work through all the types and make sure each one is represented
-			second_loop:
 			for (Long thisType : groupTypes) {
-				for (Relationship thisRelationship : thisGroupRelationships) {
-					if (thisRelationship.isType(thisType)) {
-						continue second_loop; // Move on to next type
-					}
+				if (attributesOfTypeInGroup(thisType, groupId).isEmpty()) {
+					// No need to carry on through other types if we can't match this one
+					allMatch = false;
+					break;
 				}
-				// If we've not broken out of the loop by here, then we've failed to find a match for this Type
-				allMatch = false;
-				// No need to carry on through other types if we can't match this one
-				break;
 			}
 
 			// If all types are represented, then add these relationships to our list of potential matches
 			if (allMatch) {
-				allGroupRelationships.addAll(thisGroupRelationships);
+				allGroupRelationships.addAll(attributesInGroup(groupId));
 			}
 		}
 		return allGroupRelationships;
@@ -396,7 +485,7 @@ public class Concept implements Comparable<Concept> {
 					// Find the concept for this potential match relationship in the inferred graph
 					Concept potentialMatchingType = Concept.getConcept(thisRel.getTypeId(), CHARACTERISTIC.INFERRED);
 					// does this potential relationship's type have the target type as a parent?
-					if (potentialMatchingType.hasParent(relType)) {
+					if (potentialMatchingType.isDescendantOf(relType)) {
 						matches.add(thisRel);
 					}
 				}
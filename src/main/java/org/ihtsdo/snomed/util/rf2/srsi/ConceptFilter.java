@@ -1,15 +1,17 @@
 package org.ihtsdo.snomed.util.rf2.srsi;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.Set;
 import java.util.TreeSet;
 
+import org.ihtsdo.snomed.util.rf2.Rf2Archive;
+import org.ihtsdo.snomed.util.rf2.Rf2LineScanner;
+import org.ihtsdo.snomed.util.rf2.schema.ComponentType;
+
 /**
  * Usage: java -classpath /Users/Peter/code/snomed-utilities/target/snomed-utilities-1.0.10-SNAPSHOT.jar
  * org.ihtsdo.snomed.util.rf2.ConceptFilter sct2_Concept_Snapshot_INT_20150731.txt sct2_Description_Snapshot-en_INT_20150731.txt 4
@@ -25,6 +27,10 @@ public class ConceptFilter {
 	public static final String LINE_TERMINATOR = "\r\n";
 
 	public static void main(String[] args) throws IOException {
+		if (args.length == 5 && Rf2Archive.isArchive(args[0])) {
+			filterArchive(args);
+			return;
+		}
 		if (args.length != 4) {
 			doHelp();
 		}
@@ -36,27 +42,54 @@ public class ConceptFilter {
 
 		// Read through the concept file and extract a list of SCTIDs
 		out("Loading SCTIDs from 1st column of: " + componentFile.getName());
-		Set<String> conceptSCTIDs = loadComponents(componentFile);
+		Set<String> conceptSCTIDs = loadComponents(new Rf2LineScanner(componentFile));
 
 		// Filter the file based on values obtained
 		out("Filtering file: " + fileToFilter.getName());
-		filterFile(fileToFilter, filterColumn, conceptSCTIDs, outputFile);
+		filterFile(new Rf2LineScanner(fileToFilter), filterColumn, conceptSCTIDs, outputFile);
+
+	}
 
+	/**
+	 * As main, but both the component file and the file to filter are Snapshot files streamed from a release package,
+	 * identified by their content type eg Concept, Description
+	 */
+	private static void filterArchive(String[] args) throws IOException {
+		ComponentType componentType = getComponentType(args[1]);
+		ComponentType typeToFilter = getComponentType(args[2]);
+		int filterColumn = Integer.parseInt(args[3]);
+		File outputFile = new File(args[4]);
+
+		try (Rf2Archive archive = new Rf2Archive(args[0])) {
+			String componentEntry = archive.findEntryName(componentType, Rf2Archive.SNAPSHOT);
+			out("Loading SCTIDs from 1st column of: " + componentEntry);
+			Set<String> conceptSCTIDs = loadComponents(archive.openScanner(componentEntry));
+
+			String entryToFilter = archive.findEntryName(typeToFilter, Rf2Archive.SNAPSHOT);
+			out("Filtering file: " + entryToFilter);
+			filterFile(archive.openScanner(entryToFilter), filterColumn, conceptSCTIDs, outputFile);
+		}
+	}
+
+	private static ComponentType getComponentType(String contentType) throws IOException {
+		ComponentType componentType = ComponentType.lookup(contentType);
+		if (componentType == null) {
+			throw new IOException("Content type not recognised: " + contentType);
+		}
+		return componentType;
 	}
 
-	private static void filterFile(File fileToFilter, int filterColumn, Set<String> conceptSCTIDs, File outputFile) throws
+	private static void filterFile(Rf2LineScanner fileToFilter, int filterColumn, Set<String> conceptSCTIDs, File outputFile) throws
 			IOException {
 		FileOutputStream fos = new FileOutputStream(outputFile);
 
-		try (BufferedReader br = new BufferedReader(new FileReader(fileToFilter));
+		try (Rf2LineScanner line = fileToFilter;
 				BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(fos))) {
-			String line;
 			boolean isFirstLine = true;
-			while ((line = br.readLine()) != null) {
-				String[] columns = line.split(FIELD_DELIMITER);
+			while (line.next()) {
 				// Is this concept one of the ones we loaded? Output this line if so
-				if (isFirstLine || conceptSCTIDs.contains(columns[filterColumn])) {
-					bw.write(line);
+				if (isFirstLine || conceptSCTIDs.contains(line.getString(filterColumn))) {
+					bw.write(line.getLine());
 					bw.write(LINE_TERMINATOR);
 				}
 				isFirstLine = false;
@@ -65,14 +98,12 @@ public class ConceptFilter {
 
 	}
 
-	private static Set<String> loadComponents(File conceptFile) throws IOException {
+	private static Set<String> loadComponents(Rf2LineScanner componentFile) throws IOException {
 		Set<String> loadedComponents = new TreeSet<>();
 
-		try (BufferedReader br = new BufferedReader(new FileReader(conceptFile))) {
-			String line;
-			while ((line = br.readLine()) != null) {
-				String[] columns = line.split(FIELD_DELIMITER);
-				loadedComponents.add(columns[IDX_SCTID]);
+		try (Rf2LineScanner line = componentFile) {
+			while (line.next()) {
+				loadedComponents.add(line.getString(IDX_SCTID));
 			}
 		}
 		return loadedComponents;
@@ -85,6 +116,7 @@ public class ConceptFilter {
 	private static void doHelp() {
 
 		out("Usage: <Component file location>  <file to filter location> <zero-based column index for concept match> <output file location>");
+		out("   or: <release zip location> <component content type> <content type to filter> <zero-based column index for concept match> <output file location>");
 		System.exit(-1);
 
 	}
@@ -2,7 +2,9 @@ package org.ihtsdo.snomed.util.rf2.srsi;
 
 import java.util.List;
 
-import org.ihtsdo.snomed.util.Type5UuidFactory;
+import org.ihtsdo.snomed.util.ConcurrentType5UuidFactory;
+import org.ihtsdo.snomed.util.rf2.RelationshipKey;
+import org.ihtsdo.snomed.util.rf2.Rf2LineScanner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,11 +26,11 @@ public class Relationship implements Comparable<Relationship> {
 		STATED, INFERRED, ADDITIONAL
 	}
 
-    private static final Type5UuidFactory type5UuidFactory;
+    private static final ConcurrentType5UuidFactory type5UuidFactory;
 
 	static {
 		try {
-			type5UuidFactory = new Type5UuidFactory();
+			type5UuidFactory = new ConcurrentType5UuidFactory();
 		} catch (Exception e) {
 			throw new RuntimeException("Unable to initialise UUID factory", e);
 		}
@@ -38,8 +40,16 @@ public class Relationship implements Comparable<Relationship> {
 	Concept sourceConcept;
 	Concept destinationConcept;
 
-	private final Long typeId;
-	private final String uuid;
+	// Only the id is kept as text, the remaining columns are parsed once on load and
+	// written back out from these fields by getRF2
+	private final String id;
+	private final long sourceId;
+	private final long destinationId;
+	private final long typeId;
+	private final long moduleId;
+	private final long modifierId;
+	private final boolean active;
+	private volatile String uuid; // Only generated if asked for, eg to report a replacement
 	private final int group;
 	private Relationship replacement = null;
 	private Relationship isReplacementFor = null;
@@ -65,44 +75,49 @@ public class Relationship implements Comparable<Relationship> {
 	public static final int MAX_COLUMN = 9;
 
 	public static final String STATED_UUID_MODIFIER = "S";
-	
-	private final String[] lineValues;
 
 	// Was originally splitting the string in the constructor, but expensive to create object
 	// if active flag is zero, so check this before passing in
-	public Relationship(String[] lineValues, CHARACTERISTIC characteristic) throws Exception {
-		this.lineValues = lineValues;
-		typeId = Long.valueOf(getField(IDX_TYPEID));
-		group = Integer.parseInt(getField(IDX_RELATIONSHIPGROUP));
-		uuid = type5UuidFactory.get(
-				getTripleString() 
-				+ lineValues[IDX_RELATIONSHIPGROUP]
-				+ STATED_UUID_MODIFIER)
-				.toString();
+	public Relationship(Rf2LineScanner line, CHARACTERISTIC characteristic) throws Exception {
+		id = line.getString(IDX_ID);
+		active = line.fieldEquals(IDX_ACTIVE, ACTIVE_FLAG);
+		moduleId = line.getLong(IDX_MODULEID);
+		sourceId = line.getLong(IDX_SOURCEID);
+		destinationId = line.getLong(IDX_DESTINATIONID);
+		group = line.getInt(IDX_RELATIONSHIPGROUP);
+		typeId = line.getLong(IDX_TYPEID);
+		modifierId = line.getLong(IDX_MODIFIERID);
 		// If this relationship is an "IS A" then add that to the concept
 		Concept.addRelationship(this, characteristic);
 	}
 
 	public String getTripleString() {
-		return lineValues[IDX_SOURCEID] + lineValues[IDX_DESTINATIONID] + lineValues[IDX_TYPEID];
+		return Long.toString(sourceId) + destinationId + typeId;
 	}
 
 	boolean isISA() {
-		return typeId.equals(ISA_ID);
-	}
-
-	String getField(int fieldIdx) {
-		return lineValues[fieldIdx];
+		return typeId == ISA_ID;
 	}
 
-	public Long getTypeId() {
+	public long getTypeId() {
 		return typeId;
 	}
 
 	public String getUuid() {
+		if (uuid == null) {
+			uuid = type5UuidFactory.get(getTripleString() + group + STATED_UUID_MODIFIER).toString();
+		}
 		return uuid;
 	}
 
+	/**
+	 * @return a key that identifies the same relationships as the UUID (source, destination, type and group)
+	 * without the cost of generating one
+	 */
+	public RelationshipKey getKey() {
+		return new RelationshipKey(sourceId, destinationId, typeId, group);
+	}
+
 	public Concept getSourceConcept() {
 		return sourceConcept;
 	}
@@ -120,7 +135,7 @@ public class Relationship implements Comparable<Relationship> {
 	}
 
 	public boolean isActive() {
-		return lineValues[IDX_ACTIVE].equals(ACTIVE_FLAG);
+		return active;
 	}
 
 	public boolean needsReplaced() {
@@ -175,16 +190,16 @@ public class Relationship implements Comparable<Relationship> {
 		this.replacementNumber = 0;
 	}
 
-	public Long getSourceId() {
-		return Long.valueOf(lineValues[IDX_SOURCEID]);
+	public long getSourceId() {
+		return sourceId;
 	}
 
-	public Long getDestinationId() {
-		return Long.valueOf(lineValues[IDX_DESTINATIONID]);
+	public long getDestinationId() {
+		return destinationId;
 	}
 
-	public boolean isType(Long thisType) {
-		return this.typeId.equals(thisType);
+	public boolean isType(long thisType) {
+		return this.typeId == thisType;
 	}
 
 	public String toString() {
@@ -194,30 +209,19 @@ public class Relationship implements Comparable<Relationship> {
 	public String getRF2(String effectiveTime, String activeFlag, String chacteristicTypeId, boolean wipeSCTID) {
 		StringBuilder sb = new StringBuilder();
 		// Output all columns, replacing effectiveTime, active and chacteristicTypeId to passed in values
-		for (int columnIdx = 0; columnIdx <= MAX_COLUMN; columnIdx++) {
-			if (columnIdx == IDX_ID) {
-				if (!wipeSCTID) {
-					sb.append(lineValues[IDX_ID]);
-				} // otherwise we'll drop straight through to the tab separator
-			} else if (columnIdx == IDX_EFFECTIVETIME) {
-				sb.append(effectiveTime);
-			} else if (columnIdx == IDX_ACTIVE) {
-				// If active flag has not been specified, use current value
-				if (activeFlag == null) {
-					sb.append(lineValues[IDX_ACTIVE]);
-				} else {
-					sb.append(activeFlag);
-				}
-			} else if (columnIdx == IDX_CHARACTERISTICTYPEID) {
-				sb.append(chacteristicTypeId);
-			} else {
-				sb.append(lineValues[columnIdx]);
-			}
-
-			if (columnIdx < MAX_COLUMN) {
-				sb.append(FIELD_DELIMITER);
-			}
+		if (!wipeSCTID) {
+			sb.append(id);
 		}
+		sb.append(FIELD_DELIMITER).append(effectiveTime)
+			// If active flag has not been specified, use current value
+			.append(FIELD_DELIMITER).append(activeFlag == null ? (active ? ACTIVE_FLAG : INACTIVE_FLAG) : activeFlag)
+			.append(FIELD_DELIMITER).append(moduleId)
+			.append(FIELD_DELIMITER).append(sourceId)
+			.append(FIELD_DELIMITER).append(destinationId)
+			.append(FIELD_DELIMITER).append(group)
+			.append(FIELD_DELIMITER).append(typeId)
+			.append(FIELD_DELIMITER).append(chacteristicTypeId)
+			.append(FIELD_DELIMITER).append(modifierId);
 
 		sb.append(LINE_DELIMITER);
 		return sb.toString();
@@ -230,31 +234,31 @@ public class Relationship implements Comparable<Relationship> {
 	@Override
 	public int compareTo(Relationship other) {
 		// Sort on source sctid, group, type, destination
-		int i = this.getSourceId().compareTo(other.getSourceId());
+		int i = Long.compare(this.sourceId, other.sourceId);
 		if (i != 0)
 			return i;
 
-		i = this.getGroup() - other.getGroup();
+		i = this.group - other.group;
 		if (i != 0)
 			return i;
 
-		i = this.getTypeId().compareTo(other.getTypeId());
+		i = Long.compare(this.typeId, other.typeId);
 		if (i != 0)
 			return i;
 
-		return this.getDestinationId().compareTo(other.getDestinationId());
+		return Long.compare(this.destinationId, other.destinationId);
 	}
 
 	public String toString(boolean addStar) {
 		StringBuilder sb = new StringBuilder();
 		sb.append("[S: ")
-			.append(lineValues[IDX_SOURCEID])
+			.append(sourceId)
 			.append(", D: ")
-			.append(lineValues[IDX_DESTINATIONID])
+			.append(destinationId)
 			.append(", T: ")
-			.append(lineValues[IDX_TYPEID])
+			.append(typeId)
 			.append( ", G: ")
-			.append(lineValues[IDX_RELATIONSHIPGROUP])
+			.append(group)
 			.append("] ");
 
 		if (hasReplacement() || isReplacement()) {
@@ -269,7 +273,7 @@ public class Relationship implements Comparable<Relationship> {
 		
 		if (isReplacement()) {
 			sb.append(" [")
-.append(uuid).append("]");
+.append(getUuid()).append("]");
 		}
 		return sb.toString();
 	}
@@ -1,5 +1,9 @@
 package org.ihtsdo.snomed.util.rf2.srsi;
 
+import org.ihtsdo.snomed.util.rf2.RelationshipKey;
+import org.ihtsdo.snomed.util.rf2.Rf2Archive;
+import org.ihtsdo.snomed.util.rf2.Rf2LineScanner;
+import org.ihtsdo.snomed.util.rf2.schema.ComponentType;
 import org.ihtsdo.snomed.util.rf2.srsi.Relationship.CHARACTERISTIC;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -7,6 +11,12 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -28,45 +38,72 @@ public class RelationshipProcessor {
 	private final String outputFile;
 	// The additional file contains relationships we want to just pass straight through to the stated output
 	private final String additionalFile;
+	// If set, the stated and inferred files are the names of entries in this release package
+	private final Rf2Archive archive;
 
 	private static final boolean LEAVE_SCTID_AS_IS = false;
 	private static final boolean SET_SCTID_TO_NULL = true;
 
+	private static final int REPLACEMENT_THREADS = Runtime.getRuntime().availableProcessors();
+
+	// The stated and additional relationships stay keyed on UUID as the output file is written in that order. The
+	// inferred relationships are only looked up, so are keyed without generating a UUID for each of them.
 	private Map<String, Relationship> statedRelationships;
-	private Map<String, Relationship> inferredRelationships;
+	private Map<RelationshipKey, Relationship> inferredRelationships;
 	private Map<String, Relationship> additionalRelationships;
 
-	// Counters to track how many replacements made by each algorithm
-	private int a1Count = 0;
-	private int a2Count = 0;
-	private int a3Count = 0;
-	private int a4Count = 0;
-	private int a5Count = 0;
-	private int a3_1Count = 0;
-	private int a3_2Count = 0;
+	// Counters to track how many replacements made by each algorithm. Atomic as source concepts may be worked on in parallel
+	private final AtomicInteger a1Count = new AtomicInteger();
+	private final AtomicInteger a2Count = new AtomicInteger();
+	private final AtomicInteger a3Count = new AtomicInteger();
+	private final AtomicInteger a4Count = new AtomicInteger();
+	private final AtomicInteger a5Count = new AtomicInteger();
+	private final AtomicInteger a3_1Count = new AtomicInteger();
+	private final AtomicInteger a3_2Count = new AtomicInteger();
 
 	private String outputEffectiveTime;
+	// Zero to find all replacements on the calling thread
+	private int replacementThreads = 0;
 
 	public RelationshipProcessor(String statedFile, String inferredFile, String additionalFile, String outputFile) {
+		this(statedFile, inferredFile, additionalFile, outputFile, null);
+	}
+
+	/**
+	 * Reads the stated and inferred Snapshot files straight from a release package
+	 */
+	public RelationshipProcessor(Rf2Archive archive, String additionalFile, String outputFile) throws IOException {
+		this(archive.findEntryName(ComponentType.STATED_RELATIONSHIP, Rf2Archive.SNAPSHOT),
+				archive.findEntryName(ComponentType.RELATIONSHIP, Rf2Archive.SNAPSHOT),
+				additionalFile, outputFile, archive);
+	}
+
+	private RelationshipProcessor(String statedFile, String inferredFile, String additionalFile, String outputFile, Rf2Archive archive) {
 		this.statedFile = statedFile;
 		this.inferredFile = inferredFile;
 		this.additionalFile = additionalFile;
 		this.outputFile = outputFile;
+		this.archive = archive;
 	}
 
 	public static void main(String[] args) throws Exception {
-		if (args.length < 4) {
+		boolean loadFromArchive = args.length > 0 && Rf2Archive.isArchive(args[0]);
+		// The release package takes the place of both the stated and inferred file arguments
+		int outputFileIdx = loadFromArchive ? 2 : 3;
+		if (args.length <= outputFileIdx) {
 			doHelp();
 		}
 
-		RelationshipProcessor rp = new RelationshipProcessor(args[0], args[1], args[2], args[3]);
+		RelationshipProcessor rp = loadFromArchive
+				? new RelationshipProcessor(new Rf2Archive(args[0]), args[1], args[2])
+				: new RelationshipProcessor(args[0], args[1], args[2], args[3]);
 		// Make sure we have a valid effectiveTime for output, before we start
-		rp.outputEffectiveTime = extractEffectiveTime(args[3]);
-		rp.loadRelationships();
-		rp.substituteInferredRelationships();
+		String outputEffectiveTime = extractEffectiveTime(args[outputFileIdx]);
+		List<String> options = Arrays.asList(args).subList(outputFileIdx + 1, args.length);
+		rp.process(outputEffectiveTime, options.contains("-p") ? REPLACEMENT_THREADS : 0);
 
 		// Are we running in interactive mode? Query memory structures if so
-		if (args.length == 5 && args[4].equals("-i")) {
+		if (options.contains("-i")) {
 			rp.goInteractive();
 		}
 	}
@@ -119,19 +156,37 @@ public class RelationshipProcessor {
 		}
 	}
 
+	/**
+	 * Loads the relationship files, finds replacements for the stated relationships that are no longer inferred and
+	 * writes the output file
+	 * @param replacementThreads	how many source concepts to work on at once, or 0 to work through them in turn
+	 */
+	void process(String outputEffectiveTime, int replacementThreads) throws Exception {
+		this.outputEffectiveTime = outputEffectiveTime;
+		this.replacementThreads = replacementThreads;
+		loadRelationships();
+		substituteInferredRelationships();
+	}
+
 	private void loadRelationships() throws Exception {
 
-		LOGGER.debug("Loading Stated File: {}", statedFile);
-		statedRelationships = loadFile(statedFile, Relationship.CHARACTERISTIC.STATED, false); // Not optional
+		try {
+			LOGGER.debug("Loading Stated File: {}", statedFile);
+			statedRelationships = loadFile(statedFile, Relationship.CHARACTERISTIC.STATED, false, Relationship::getUuid); // Not optional
 
-		LOGGER.debug("Loading Inferred File: {}", inferredFile);
-		inferredRelationships = loadFile(inferredFile, Relationship.CHARACTERISTIC.INFERRED, false);
+			LOGGER.debug("Loading Inferred File: {}", inferredFile);
+			inferredRelationships = loadFile(inferredFile, Relationship.CHARACTERISTIC.INFERRED, false, Relationship::getKey);
 
-		LOGGER.debug("Loading Additional File: {}", additionalFile);
-		additionalRelationships = loadFile(additionalFile, Relationship.CHARACTERISTIC.ADDITIONAL, true); // Optional
+			LOGGER.debug("Loading Additional File: {}", additionalFile);
+			additionalRelationships = loadFile(additionalFile, Relationship.CHARACTERISTIC.ADDITIONAL, true, Relationship::getUuid); // Optional
+		} finally {
+			if (archive != null) {
+				archive.close();
+			}
+		}
 
 		LOGGER.debug("Loading complete");
-
+		Concept.reportMemoryUsage();
 	}
 
 	private void substituteInferredRelationships() throws Exception {
@@ -160,35 +215,72 @@ public class RelationshipProcessor {
 		reportFailures();
 	}
 
-	private void findReplacements()
-			throws UnsupportedEncodingException {
+	private void findReplacements() throws Exception {
 
 		LOGGER.debug("Pass 1");
 		// First pass, mark all stated relationships that might need replaced. Do this now so we can
 		// allow potential duplicates to temporarily exist if the prior existing duplicate is also going to be changed.
 		for (Relationship thisStatedRelationship : statedRelationships.values()) {
 			// Does this relationship exist in the inferred file? If not, find it a replacement
-			if (!inferredRelationships.containsKey(thisStatedRelationship.getUuid())) {
+			if (!inferredRelationships.containsKey(thisStatedRelationship.getKey())) {
 				thisStatedRelationship.needsReplaced(true);
 			}
 		}
 
+		if (replacementThreads > 0) {
+			findReplacementsInParallel();
+			return;
+		}
+
 		LOGGER.debug("Pass 2");
-		for (Relationship thisStatedRelationship : statedRelationships.values()) {
+		findReplacements(statedRelationships.values());
+
+		LOGGER.debug("Pass 3");// Third pass for replacements that have been removed by more confident subsequent matches
+		findReplacements(statedRelationships.values());
+
+	}
+
+	private void findReplacements(Collection<Relationship> relationships) throws UnsupportedEncodingException {
+		for (Relationship thisStatedRelationship : relationships) {
 			// If it's already been replaced (because it already moved as part of a group) then skip
 			if (thisStatedRelationship.needsReplaced() && !thisStatedRelationship.hasReplacement()) {
 				findReplacement(thisStatedRelationship);
 			}
 		}
+	}
 
-		LOGGER.debug("Pass 3");// Third pass for replacements that have been removed by more confident subsequent matches
+	/**
+	 * Passes 2 and 3 for each source concept as a separate task. A replacement only ever comes from the inferred
+	 * relationships of the same source concept, and the replacement numbers are counted per source concept, so the
+	 * concepts can be worked on in any order. Keeping each concept's relationships in the order of statedRelationships
+	 * means every relationship ends up with the same replacement as a sequential run, and so the same output file.
+	 */
+	private void findReplacementsInParallel() throws Exception {
+		Map<Long, List<Relationship>> relationshipsBySource = new LinkedHashMap<>();
 		for (Relationship thisStatedRelationship : statedRelationships.values()) {
-			// If it's already been replaced (because it already moved as part of a group) then skip
-			if (thisStatedRelationship.needsReplaced() && !thisStatedRelationship.hasReplacement()) {
-				findReplacement(thisStatedRelationship);
-			}
+			relationshipsBySource.computeIfAbsent(thisStatedRelationship.getSourceId(), k -> new ArrayList<>()).add(thisStatedRelationship);
 		}
 
+		LOGGER.debug("Passes 2 and 3 for {} source concepts on {} threads", relationshipsBySource.size(), replacementThreads);
+		List<Callable<Void>> tasks = new ArrayList<>(relationshipsBySource.size());
+		for (List<Relationship> sourceRelationships : relationshipsBySource.values()) {
+			tasks.add(() -> {
+				findReplacements(sourceRelationships);
+				findReplacements(sourceRelationships);
+				return null;
+			});
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(replacementThreads);
+		try {
+			for (Future<Void> task : pool.invokeAll(tasks)) {
+				task.get();
+			}
+		} catch (ExecutionException e) {
+			throw new Exception("Failed to find replacements", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
 	}
 
 	private void findReplacement(Relationship thisStatedRelationship) throws UnsupportedEncodingException {
@@ -231,7 +323,7 @@ public class RelationshipProcessor {
 				sRelationship.getDestinationId(), sRelationship.getGroup(), true, false);
 		success = attemptReplacement(sRelationship, replacements, "Alg1", true);
 		if (success)
-			a1Count++;
+			a1Count.incrementAndGet();
 		return success;
 	}
 	
@@ -250,7 +342,7 @@ public class RelationshipProcessor {
 		List<Relationship> replacements = sourceConceptInf.findMatchingRelationships(triplesHash, sRelationship);
 		success = attemptReplacement(sRelationship, replacements, "Alg2", true);
 		if (success)
-			a2Count++;
+			a2Count.incrementAndGet();
 		return success;
 	}
 	
@@ -282,7 +374,7 @@ public class RelationshipProcessor {
 			if (potentialReplacement.isType(sRelationship.getTypeId()) && 
  potentialReplacement.getDestinationConcept().equals(sRelationship.getDestinationConcept())) {
 					replacements.add(potentialReplacement);
-				a3_1Count++;
+				a3_1Count.incrementAndGet();
 			}
 		}
 		
@@ -290,14 +382,14 @@ public class RelationshipProcessor {
 		if (replacements.size() == 0) {
 			for (Relationship potentialReplacement : potentialGroups) {
 				if (potentialReplacement.isType(sRelationship.getTypeId()) && 
- potentialReplacement.getDestinationConcept().hasParent(sRelationship.getDestinationConcept()))
+ potentialReplacement.getDestinationConcept().isDescendantOf(sRelationship.getDestinationConcept()))
 						replacements.add(potentialReplacement);
-				a3_2Count++;
+				a3_2Count.incrementAndGet();
 			}			
 		}
 		success = attemptReplacement(sRelationship, replacements, "Alg3", false);
 		if (success)
-			a3Count++;
+			a3Count.incrementAndGet();
 		return success;
 	}
 
@@ -313,7 +405,7 @@ public class RelationshipProcessor {
 		List<Relationship> replacements = sourceInferred.findMatchingRelationships(sRelationship.getTypeId(), sRelationship.getDestinationConcept());
 		success = attemptReplacement(sRelationship, replacements, "Alg4", false);
 		if (success)
-			a4Count++;
+			a4Count.incrementAndGet();
 
 		return success;
 	}
@@ -328,7 +420,7 @@ public class RelationshipProcessor {
 		List<Relationship> replacements = sourceInferred.findMatchingRelationships(sRel.getTypeId(), sRel.getDestinationId(), true, true);
 		success = attemptReplacement(sRel, replacements, "Alg5", false);
 		if (success)
-			a5Count++;
+			a5Count.incrementAndGet();
 
 		return success;
 	}
@@ -402,42 +494,45 @@ public class RelationshipProcessor {
 		long remainder = needsReplaced - hasBeenReplaced;
 		LOGGER.info("Of the {} stated relationships, {} needed replaced, {} have been replaced, leaving {} to work with",
 				statedRelationships.size(), needsReplaced, hasBeenReplaced, remainder);
-		LOGGER.info("Algorithm success rates 1: {}, 2: {}, 3: {}, 4: {}, 5: {}", a1Count, a2Count, a3Count, a4Count, a5Count);
-		LOGGER.info("Algorithm 3 breakdown - potential Exact Match: {}, More Proximate: {}", a3_1Count, a3_2Count);
+		LOGGER.info("Algorithm success rates 1: {}, 2: {}, 3: {}, 4: {}, 5: {}", a1Count.get(), a2Count.get(), a3Count.get(),
+				a4Count.get(), a5Count.get());
+		LOGGER.info("Algorithm 3 breakdown - potential Exact Match: {}, More Proximate: {}", a3_1Count.get(), a3_2Count.get());
+		Concept.reportIndexUsage();
 
 	}
 
-	private Map<String, Relationship> loadFile(String filePath, Relationship.CHARACTERISTIC characteristic, boolean optional)
-			throws Exception {
+	private <K> Map<K, Relationship> loadFile(String filePath, Relationship.CHARACTERISTIC characteristic, boolean optional,
+			Function<Relationship, K> keyOf) throws Exception {
+		if (archive != null && archive.containsEntry(filePath)) {
+			return loadRelationships(archive.openScanner(filePath), characteristic, keyOf);
+		}
+
 		// Does this file exist and not as a directory?
 		File file = new File(filePath);
-		Map<String, Relationship> loadedRelationships = new HashMap<>();
 
 		if (!file.exists() || file.isDirectory()) {
 			if (optional) {
 				LOGGER.info("Skipping {} relationship file: {}", characteristic.toString(), filePath);
-				return loadedRelationships;
+				return new HashMap<>();
 			} else {
 				throw new IOException("Unable to read file " + filePath);
 			}
 		}
+		return loadRelationships(new Rf2LineScanner(file), characteristic, keyOf);
+	}
 
-		try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-			String line;
-			boolean isFirstLine = true;
-			while ((line = br.readLine()) != null) {
-
-				if (!isFirstLine) {
-					String[] lineItems = line.split(Relationship.FIELD_DELIMITER);
-					// Only store active relationships
-					if (lineItems[Relationship.IDX_ACTIVE].equals(Relationship.ACTIVE_FLAG)) {
-						Relationship r = new Relationship(lineItems, characteristic);
-						loadedRelationships.put(r.getUuid(), r);
-					}
-				} else {
-					isFirstLine = false;
-                }
-
+	private <K> Map<K, Relationship> loadRelationships(Rf2LineScanner scanner, Relationship.CHARACTERISTIC characteristic,
+			Function<Relationship, K> keyOf) throws Exception {
+		Map<K, Relationship> loadedRelationships = new HashMap<>();
+		try (Rf2LineScanner line = scanner) {
+			// Skip the header row
+			line.next();
+			while (line.next()) {
+				// Only store active relationships
+				if (line.fieldEquals(Relationship.IDX_ACTIVE, Relationship.ACTIVE_FLAG)) {
+					Relationship r = new Relationship(line, characteristic);
+					loadedRelationships.put(keyOf.apply(r), r);
+				}
 			}
 		}
 		return loadedRelationships;
@@ -459,7 +554,7 @@ public class RelationshipProcessor {
 					// If this exact triple+group has been assigned as the replacement of another relationship, then
 					// we don't want to inactivate it. In fact at that point, we can suppress both lines as this
 					// stated relationship will remain active
-					Relationship inferredEquivalent = inferredRelationships.get(thisRelationship.getUuid());
+					Relationship inferredEquivalent = inferredRelationships.get(thisRelationship.getKey());
 
 					if (inferredEquivalent != null && inferredEquivalent.isReplacement()) {
 						LOGGER.info("Suppressing inactivation of {}, as it's also a replacement for {}", thisRelationship,
@@ -527,7 +622,9 @@ public class RelationshipProcessor {
 	}
 
 	private static void doHelp() {
-		LOGGER.info("Usage: <stated relationship file location>  <inferred realtionship file location> <output file location>");
+		LOGGER.info("Usage: <stated relationship file location>  <inferred realtionship file location> <additional relationship file location> <output file location> [-i] [-p]");
+		LOGGER.info("   or: <release zip location> <additional relationship file location> <output file location> [-i] [-p]");
+		LOGGER.info("   -i to query concepts interactively once complete, -p to find replacements on multiple threads");
 		System.exit(-1);
 	}
 
@@ -0,0 +1,150 @@
+package org.ihtsdo.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of open, buffered UTF-8 writers appending to report and RF2 files, one per file, so that code writing a
+ * line at a time doesn't reopen the file for every line.
+ * Each file is flushed once FLUSH_SIZE characters have been written to it since it was last flushed, and every
+ * file is flushed at least every FLUSH_INTERVAL_MS, so the output of a long running report can be followed as it
+ * is written. Everything is closed on shutdown, or can be closed earlier with close or closeAll, after which any
+ * further lines are appended to the file as it was left.
+ */
+public class FileAppenders {
+
+	public static final int FLUSH_SIZE = 64 * 1024;
+	public static final int FLUSH_INTERVAL_MS = 2000;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final ConcurrentMap<String, Appender> appenders = new ConcurrentHashMap<>();
+	private static ScheduledExecutorService flusher;
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(FileAppenders::closeAll, "FileAppenders shutdown"));
+	}
+
+	/**
+	 * Appends the text to the file, creating the file (and its directory) if it doesn't exist yet.
+	 */
+	public static void append(String fileName, String text) throws IOException {
+		File file = new File(fileName).getAbsoluteFile();
+		Appender appender = appenders.get(file.getPath());
+		if (appender == null) {
+			appender = open(file);
+		}
+		appender.append(text);
+	}
+
+	private static synchronized Appender open(File file) throws IOException {
+		Appender appender = appenders.get(file.getPath());
+		if (appender == null) {
+			appender = new Appender(GlobalUtils.ensureFileExists(file.getPath()));
+			appenders.put(file.getPath(), appender);
+			startFlusher();
+		}
+		return appender;
+	}
+
+	private static void startFlusher() {
+		if (flusher == null) {
+			flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "FileAppenders flush");
+				thread.setDaemon(true);
+				return thread;
+			});
+			flusher.scheduleWithFixedDelay(FileAppenders::flushAll, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public static void flushAll() {
+		for (Appender appender : appenders.values()) {
+			try {
+				appender.flush();
+			} catch (IOException e) {
+				GlobalUtils.print("Unable to flush " + appender.file + " due to " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Flushes the file, if it's open, leaving it open for further lines.
+	 */
+	public static void flush(String fileName) throws IOException {
+		Appender appender = appenders.get(new File(fileName).getAbsoluteFile().getPath());
+		if (appender != null) {
+			appender.flush();
+		}
+	}
+
+	/**
+	 * Flushes and closes the file, if it's open. Lines appended to it afterwards reopen it.
+	 */
+	public static void close(String fileName) throws IOException {
+		Appender appender = appenders.remove(new File(fileName).getAbsoluteFile().getPath());
+		if (appender != null) {
+			appender.close();
+		}
+	}
+
+	public static void closeAll() {
+		for (String path : appenders.keySet()) {
+			try {
+				close(path);
+			} catch (IOException e) {
+				GlobalUtils.print("Unable to close " + path + " due to " + e.getMessage());
+			}
+		}
+	}
+
+	private static class Appender {
+
+		private final File file;
+		private final Writer writer;
+		private int unflushed = 0;
+		private boolean closed = false;
+
+		private Appender(File file) throws IOException {
+			this.file = file;
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8), BUFFER_SIZE);
+		}
+
+		private synchronized void append(String text) throws IOException {
+			if (closed) {
+				// Closed by another thread since it was looked up
+				FileAppenders.append(file.getPath(), text);
+				return;
+			}
+			writer.write(text);
+			unflushed += text.length();
+			if (unflushed >= FLUSH_SIZE) {
+				flush();
+			}
+		}
+
+		private synchronized void flush() throws IOException {
+			if (!closed && unflushed > 0) {
+				writer.flush();
+				unflushed = 0;
+			}
+		}
+
+		private synchronized void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				writer.close();
+			}
+		}
+	}
+
+}
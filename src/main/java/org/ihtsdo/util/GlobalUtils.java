@@ -1,13 +1,9 @@
 package org.ihtsdo.util;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -24,12 +20,9 @@ public class GlobalUtils {
 		System.out.println(msg);
 	}
 	
+	// The files are held open by FileAppenders between calls, rather than reopened for every line
 	public static void outputToFile(String fileName, String[] columns, String delimiter, boolean quoteFields) throws IOException {
-		File file = ensureFileExists(fileName);
-		try(	OutputStreamWriter osw = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
-				BufferedWriter bw = new BufferedWriter(osw);
-				PrintWriter out = new PrintWriter(bw))
-		{
+		try {
 			StringBuilder line = new StringBuilder();
 			for (int x=0; x<columns.length; x++) {
 				if (x > 0) {
@@ -39,35 +32,29 @@ public class GlobalUtils {
 				line.append(columns[x]==null?"":columns[x]);
 				line.append(quoteFields?QUOTE:"");
 			}
-			out.print(line + LINE_DELIMITER);
+			FileAppenders.append(fileName, line + LINE_DELIMITER);
 		} catch (Exception e) {
-			print ("Unable to output to " + file.getAbsolutePath() + " due to " + e.getMessage());
+			print ("Unable to output to " + new File(fileName).getAbsolutePath() + " due to " + e.getMessage());
 		}
 	}
 	
 	public static void outputToFile(String fileName, String line) throws IOException {
-		File file = ensureFileExists(fileName);
-		try(	OutputStreamWriter osw = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
-				BufferedWriter bw = new BufferedWriter(osw);
-				PrintWriter out = new PrintWriter(bw))
-		{
-			out.print(line + LINE_DELIMITER);
+		try {
+			FileAppenders.append(fileName, line + LINE_DELIMITER);
 		} catch (Exception e) {
-			print ("Unable to output to " + file.getAbsolutePath() + " due to " + e.getMessage());
+			print ("Unable to output to " + new File(fileName).getAbsolutePath() + " due to " + e.getMessage());
 		}
 	}
 	
 	public static void outputToFile(String fileName, List<String> lines) throws IOException {
-		File file = ensureFileExists(fileName);
-		try(	OutputStreamWriter osw = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
-				BufferedWriter bw = new BufferedWriter(osw);
-				PrintWriter out = new PrintWriter(bw))
-		{
+		try {
+			StringBuilder text = new StringBuilder();
 			for (String line : lines) {
-				out.print(line + LINE_DELIMITER);
+				text.append(line).append(LINE_DELIMITER);
 			}
+			FileAppenders.append(fileName, text.toString());
 		} catch (Exception e) {
-			print ("Unable to output to " + file.getAbsolutePath() + " due to " + e.getMessage());
+			print ("Unable to output to " + new File(fileName).getAbsolutePath() + " due to " + e.getMessage());
 		}
 	}
 
@@ -107,6 +94,8 @@ public class GlobalUtils {
 		try {
 			// The zip filename will be the name of the first thing in the zip location
 			// ie in this case the directory SnomedCT_RF1Release_INT_20150731
+			// Anything still buffered for files in the directory needs to be on disk before it's zipped
+			FileAppenders.closeAll();
 			String zipFileName = getZipFilename(dirToZip, zipFileOrigName);
 			ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFileName));
 			String rootLocation = dirToZip.getAbsolutePath() + File.separator;
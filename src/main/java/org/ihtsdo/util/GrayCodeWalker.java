@@ -0,0 +1,128 @@
+package org.ihtsdo.util;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Steps through every combination of states for a number of positions (eg for each attribute of a group: left
+ * out, included as is, or included as its parent type) in reflected Gray code order, so that only one position
+ * changes from one combination to the next. Each state of each position contributes a value to a running sum,
+ * which is adjusted as a position changes rather than recalculated, so each combination costs one addition
+ * rather than one per position.
+ */
+public class GrayCodeWalker {
+
+	private final long[][] contributions;
+	private final int[] states;
+	private final int[] directions;
+	private final int[] stateCounts;
+	private long sum = 0;
+	private long visited = 0;
+	private boolean finished = false;
+
+	/**
+	 * Starts with every position in state 0.
+	 * @param contributions	for each position, the value added to the sum by each of its states. A position with
+	 * 						only one state never changes, so leaving out states that can't apply prunes the walk.
+	 */
+	public GrayCodeWalker(long[][] contributions) {
+		this.contributions = contributions;
+		states = new int[contributions.length];
+		directions = new int[contributions.length];
+		int maxStates = 1;
+		for (int x = 0; x < contributions.length; x++) {
+			maxStates = Math.max(maxStates, contributions[x].length);
+			directions[x] = 1;
+			sum += contributions[x][0];
+		}
+		stateCounts = new int[maxStates];
+		stateCounts[0] = contributions.length;
+	}
+
+	/**
+	 * Moves on to the next combination. The first call leaves every position in state 0.
+	 * @return false once every combination has been visited
+	 */
+	public boolean next() {
+		if (finished) {
+			return false;
+		}
+		if (visited++ == 0) {
+			return true;
+		}
+		// Move the lowest position that can still go in its current direction, turning round any below it
+		for (int position = 0; position < states.length; position++) {
+			int newState = states[position] + directions[position];
+			if (newState >= 0 && newState < contributions[position].length) {
+				int oldState = states[position];
+				states[position] = newState;
+				stateCounts[oldState]--;
+				stateCounts[newState]++;
+				sum += contributions[position][newState] - contributions[position][oldState];
+				return true;
+			}
+			directions[position] = -directions[position];
+		}
+		finished = true;
+		visited--;
+		return false;
+	}
+
+	/**
+	 * @return the sum of the contributions of every position's current state
+	 */
+	public long getSum() {
+		return sum;
+	}
+
+	public int getState(int position) {
+		return states[position];
+	}
+
+	/**
+	 * @return how many positions are currently in the given state
+	 */
+	public int countInState(int state) {
+		return state < stateCounts.length ? stateCounts[state] : 0;
+	}
+
+	/**
+	 * @return the positions currently in the given state, eg to record which combination was chosen
+	 */
+	public Set<Integer> getPositionsInState(int state) {
+		Set<Integer> positions = new TreeSet<>();
+		for (int x = 0; x < states.length; x++) {
+			if (states[x] == state) {
+				positions.add(x);
+			}
+		}
+		return positions;
+	}
+
+	/**
+	 * @return how many combinations have been visited so far
+	 */
+	public long getVisited() {
+		return visited;
+	}
+
+	public int size() {
+		return states.length;
+	}
+
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * @return the number of combinations a full walk visits
+	 */
+	public long getCombinations() {
+		long combinations = 1;
+		for (long[] positionContributions : contributions) {
+			combinations *= positionContributions.length;
+		}
+		return combinations;
+	}
+
+}
@@ -0,0 +1,221 @@
+package org.ihtsdo.util;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Open addressing hash map keyed on a primitive long, so that lookups by SCTID don't need to box
+ * the key and each entry costs two array slots rather than a HashMap node plus a Long.
+ * Not thread safe, in the same way as the HashMaps it replaces.
+ */
+public class LongObjectMap<V> {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+	private static final float LOAD_FACTOR = 0.6f;
+	private static final long FREE = 0L;
+
+	// A key of zero is used to mark a free slot, so any value stored against zero is held separately
+	private long[] keys;
+	private Object[] values;
+	private Object zeroValue;
+	private boolean hasZeroKey = false;
+	private int size = 0;
+	private int resizeThreshold;
+
+	public LongObjectMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public LongObjectMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new Object[capacity];
+		resizeThreshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		if (key == FREE) {
+			return (V) zeroValue;
+		}
+		int mask = keys.length - 1;
+		for (int idx = slot(key, mask); keys[idx] != FREE; idx = (idx + 1) & mask) {
+			if (keys[idx] == key) {
+				return (V) values[idx];
+			}
+		}
+		return null;
+	}
+
+	public boolean containsKey(long key) {
+		if (key == FREE) {
+			return hasZeroKey;
+		}
+		int mask = keys.length - 1;
+		for (int idx = slot(key, mask); keys[idx] != FREE; idx = (idx + 1) & mask) {
+			if (keys[idx] == key) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the value previously held against this key, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		if (key == FREE) {
+			V previous = (V) zeroValue;
+			zeroValue = value;
+			if (!hasZeroKey) {
+				hasZeroKey = true;
+				size++;
+			}
+			return previous;
+		}
+		int mask = keys.length - 1;
+		int idx = slot(key, mask);
+		for (; keys[idx] != FREE; idx = (idx + 1) & mask) {
+			if (keys[idx] == key) {
+				V previous = (V) values[idx];
+				values[idx] = value;
+				return previous;
+			}
+		}
+		keys[idx] = key;
+		values[idx] = value;
+		if (++size > resizeThreshold) {
+			rehash(keys.length << 1);
+		}
+		return null;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes every entry, keeping the current capacity
+	 */
+	public void clear() {
+		Arrays.fill(keys, FREE);
+		Arrays.fill(values, null);
+		zeroValue = null;
+		hasZeroKey = false;
+		size = 0;
+	}
+
+	private void rehash(int newCapacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(newCapacity);
+		int mask = newCapacity - 1;
+		for (int x = 0; x < oldKeys.length; x++) {
+			if (oldKeys[x] != FREE) {
+				int idx = slot(oldKeys[x], mask);
+				while (keys[idx] != FREE) {
+					idx = (idx + 1) & mask;
+				}
+				keys[idx] = oldKeys[x];
+				values[idx] = oldValues[x];
+			}
+		}
+	}
+
+	private static int slot(long key, int mask) {
+		// SCTIDs share their trailing partition and check digits, so spread the bits before masking
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	/**
+	 * @return a live view of the values held in this map
+	 */
+	public Collection<V> values() {
+		return new AbstractCollection<>() {
+			@Override
+			public Iterator<V> iterator() {
+				return new ValueIterator();
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * @return the approximate number of bytes held by this map, excluding the values themselves.
+	 * Assumes a 64 bit JVM with compressed references.
+	 */
+	public long estimateMemoryBytes() {
+		return 48L + arrayBytes(keys.length, 8) + arrayBytes(values.length, 4);
+	}
+
+	/**
+	 * @return the approximate number of bytes a java.util.HashMap&lt;Long, V&gt; would need to hold the same
+	 * number of entries, excluding the values themselves.
+	 */
+	public static long estimateHashMapBytes(int entries) {
+		int tableSize = Integer.highestOneBit(Math.max(16, (int) (entries / 0.75f)) - 1) << 1;
+		// HashMap object, its table, then a Node (32 bytes) and a boxed Long (16 bytes) for every entry
+		return 48L + arrayBytes(tableSize, 4) + entries * (32L + 16L);
+	}
+
+	/**
+	 * @return a line for the log saying how many entries are held in how much memory, compared to a HashMap
+	 */
+	public String describeMemory(String label) {
+		return label + ": " + size + " entries held in " + estimateMemoryBytes() / 1024 + " Kb (HashMap<Long, ?> would need "
+				+ estimateHashMapBytes(size) / 1024 + " Kb)";
+	}
+
+	private static long arrayBytes(int length, int elementSize) {
+		return 16L + (long) length * elementSize;
+	}
+
+	private class ValueIterator implements Iterator<V> {
+		private boolean zeroValueReturned = !hasZeroKey;
+		private int idx = advance(0);
+
+		private int advance(int from) {
+			while (from < keys.length && keys[from] == FREE) {
+				from++;
+			}
+			return from;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !zeroValueReturned || idx < keys.length;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public V next() {
+			if (!zeroValueReturned) {
+				zeroValueReturned = true;
+				return (V) zeroValue;
+			}
+			if (idx >= keys.length) {
+				throw new NoSuchElementException();
+			}
+			V value = (V) values[idx];
+			idx = advance(idx + 1);
+			return value;
+		}
+	}
+}
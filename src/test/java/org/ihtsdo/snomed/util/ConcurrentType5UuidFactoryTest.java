@@ -0,0 +1,77 @@
+package org.ihtsdo.snomed.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentType5UuidFactoryTest {
+
+	private static final UUID NAMESPACE = UUID.fromString("d0b3c4a8-3f4b-5c8e-9b1a-2f6e7d8c9b0a");
+
+	private Type5UuidFactory original;
+
+	@Before
+	public void setUp() throws Exception {
+		original = new Type5UuidFactory();
+	}
+
+	@Test
+	public void testMatchesOriginalFactory() throws Exception {
+		ConcurrentType5UuidFactory factory = new ConcurrentType5UuidFactory();
+		// Includes an empty name, a name longer than the initial buffer, Latin-1 and unmappable characters
+		String[] names = new String[] { "", "1234567891160000010007", "x".repeat(1000), "caf\u00e9", "\u4e2d\u6587" };
+		for (String name : names) {
+			assertEquals(original.get(name), factory.get(name));
+		}
+	}
+
+	@Test
+	public void testSupplementaryCharacters() throws Exception {
+		ConcurrentType5UuidFactory factory = new ConcurrentType5UuidFactory();
+		// A surrogate pair is one unmappable code point, while a lone surrogate still counts as one on its own
+		String[] names = new String[] { "a\uD83D\uDE00b", "\uD83D\uDE00\uD83D\uDE00", "a\uD83Db", "\uDE00" };
+		for (String name : names) {
+			assertEquals(original.get(name), factory.get(name));
+		}
+	}
+
+	@Test
+	public void testNamespace() throws Exception {
+		ConcurrentType5UuidFactory factory = new ConcurrentType5UuidFactory(NAMESPACE);
+		assertEquals(original.get(NAMESPACE, "123456789"), factory.get("123456789"));
+		assertArrayEquals(Type5UuidFactory.getRawBytes(NAMESPACE), ConcurrentType5UuidFactory.toBytes(NAMESPACE));
+	}
+
+	@Test
+	public void testSharedBetweenThreads() throws Exception {
+		ConcurrentType5UuidFactory factory = new ConcurrentType5UuidFactory();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Boolean>> results = new ArrayList<>();
+			for (int thread = 0; thread < 4; thread++) {
+				results.add(executor.submit(() -> {
+					for (int x = 0; x < 2000; x++) {
+						String name = Long.toString(100000000L + x) + x;
+						if (!factory.get(name).equals(original.get(name))) {
+							return false;
+						}
+					}
+					return true;
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertTrue(result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
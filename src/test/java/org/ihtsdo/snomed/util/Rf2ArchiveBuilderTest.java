@@ -0,0 +1,81 @@
+package org.ihtsdo.snomed.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.ihtsdo.snomed.util.rf2.schema.RF2SchemaConstants.RF2_FILE;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class Rf2ArchiveBuilderTest {
+
+	private static final String EFFECTIVE_TIME = "20150731";
+	private static final String HEADER = "id\teffectiveTime\tactive\tmoduleId\tdefinitionStatusId";
+	private static final String[] ROW = new String[] { "100", EFFECTIVE_TIME, "1", "900000000000207008", "900000000000074008" };
+	private static final String ROW_LINE = String.join("\t", ROW);
+
+	private Rf2ArchiveBuilder builder;
+	private File conceptFile;
+	private File zipFile;
+
+	@Before
+	public void setUp() throws Exception {
+		builder = new Rf2ArchiveBuilder(EFFECTIVE_TIME);
+		File dir = Files.createTempDirectory("Rf2ArchiveBuilderTest").toFile();
+		builder.outputDirName = new File(dir, "output").getPath();
+		builder.archiveDir = dir;
+		builder.init();
+		zipFile = new File(dir, "SnomedCT_RF2Release_INT_" + EFFECTIVE_TIME + ".zip");
+		conceptFile = new File(builder.getFilename(RF2_FILE.CONCEPT));
+	}
+
+	@Test
+	public void testRowsReachDiskOnFlush() throws Exception {
+		builder.writeToRF2File(RF2_FILE.CONCEPT, ROW);
+		builder.flush();
+		assertEquals(List.of(HEADER, ROW_LINE), Files.readAllLines(conceptFile.toPath(), StandardCharsets.UTF_8));
+		// Still open for more rows
+		builder.writeToRF2File(RF2_FILE.CONCEPT, ROW);
+		builder.flush();
+		assertEquals(3, Files.readAllLines(conceptFile.toPath(), StandardCharsets.UTF_8).size());
+		builder.createArchive();
+		assertTrue(zipFile.exists());
+	}
+
+	@Test
+	public void testReopenedAfterArchive() throws Exception {
+		builder.writeToRF2File(RF2_FILE.CONCEPT, ROW);
+		// Header and dummy row for each file, and the concept row
+		assertEquals(7, builder.getRowsWritten());
+		builder.createArchive();
+		try (ZipFile zip = new ZipFile(zipFile)) {
+			ZipEntry entry = zip.getEntry("SnomedCT_RF2Release_INT_" + EFFECTIVE_TIME + "/Delta/Terminology/" + conceptFile.getName());
+			assertNotNull(entry);
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8))) {
+				assertEquals(List.of(HEADER, ROW_LINE), reader.lines().collect(Collectors.toList()));
+			}
+		}
+		assertEquals(0, builder.getRowsWritten());
+		assertFalse(conceptFile.exists());
+
+		// The output directory has gone with the archive, so a further row starts a new file
+		builder.writeToRF2File(RF2_FILE.CONCEPT, ROW);
+		builder.flush();
+		assertEquals(List.of(ROW_LINE), Files.readAllLines(conceptFile.toPath(), StandardCharsets.UTF_8));
+		assertEquals(1, builder.getRowsWritten());
+		// Alongside the first archive rather than over it
+		builder.createArchive();
+		assertTrue(zipFile.exists());
+		assertTrue(new File(zipFile.getParentFile(), "SnomedCT_RF2Release_INT_" + EFFECTIVE_TIME + "_1.zip").exists());
+	}
+}
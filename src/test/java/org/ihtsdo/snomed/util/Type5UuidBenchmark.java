@@ -0,0 +1,94 @@
+package org.ihtsdo.snomed.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * Compares the throughput of Type5UuidFactory and ConcurrentType5UuidFactory, on one thread and on several, using
+ * names shaped like the relationship keys (source + destination + type + group) the loaders generate.
+ * 
+ * Usage: Type5UuidBenchmark [number of names] [number of threads]
+ */
+public class Type5UuidBenchmark {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(Type5UuidBenchmark.class);
+
+	private static final int DEFAULT_NAMES = 1000000;
+	private static final int ROUNDS = 3; // The first round just warms up the JIT
+
+	public static void main(String[] args) throws Exception {
+		int nameCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NAMES;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		String[] names = generateNames(nameCount);
+
+		Type5UuidFactory synchronizedFactory = new Type5UuidFactory();
+		ConcurrentType5UuidFactory concurrentFactory = new ConcurrentType5UuidFactory();
+		Function<String, Object> synchronizedGet = name -> {
+			try {
+				return synchronizedFactory.get(name);
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		};
+		Function<String, Object> concurrentGet = concurrentFactory::get;
+
+		for (int round = 1; round <= ROUNDS; round++) {
+			LOGGER.info("Round {} of {}, {} names", round, ROUNDS, nameCount);
+			run("Type5UuidFactory", synchronizedGet, names, 1);
+			run("Type5UuidFactory", synchronizedGet, names, threads);
+			run("ConcurrentType5UuidFactory", concurrentGet, names, 1);
+			run("ConcurrentType5UuidFactory", concurrentGet, names, threads);
+		}
+	}
+
+	private static String[] generateNames(int nameCount) {
+		Random random = new Random(nameCount);
+		String[] names = new String[nameCount];
+		for (int x = 0; x < nameCount; x++) {
+			names[x] = Long.toString(100000000L + random.nextInt(900000000)) + (100000000L + random.nextInt(900000000))
+					+ (100000000L + random.nextInt(900000000)) + random.nextInt(10);
+		}
+		return names;
+	}
+
+	private static void run(String factoryName, Function<String, Object> factory, String[] names, int threads) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			Stopwatch stopwatch = Stopwatch.createStarted();
+			int chunkSize = (names.length + threads - 1) / threads;
+			List<Future<Integer>> chunks = new ArrayList<>();
+			for (int start = 0; start < names.length; start += chunkSize) {
+				final int from = start;
+				final int to = Math.min(start + chunkSize, names.length);
+				chunks.add(executor.submit(() -> {
+					int hashes = 0;
+					for (int x = from; x < to; x++) {
+						// Use the result so the work can't be optimised away
+						hashes += factory.apply(names[x]).hashCode();
+					}
+					return hashes;
+				}));
+			}
+			for (Future<Integer> chunk : chunks) {
+				chunk.get();
+			}
+			stopwatch.stop();
+			long micros = Math.max(1, stopwatch.elapsed(TimeUnit.MICROSECONDS));
+			LOGGER.info("{} on {} thread(s): {} UUIDs/sec ({})", factoryName, threads, names.length * 1000000L / micros, stopwatch);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+package org.ihtsdo.snomed.util.mrcm;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.ihtsdo.snomed.util.mrcm.SnomedConstants.DefinitionStatus;
+import org.ihtsdo.snomed.util.pojo.Concept;
+import org.ihtsdo.snomed.util.pojo.GroupShape;
+import org.ihtsdo.snomed.util.pojo.GroupsHash;
+import org.ihtsdo.snomed.util.pojo.Relationship;
+import org.ihtsdo.snomed.util.rf2.schema.RF2SchemaConstants;
+import org.ihtsdo.snomed.util.rf2.schema.RF2SchemaConstants.CHARACTERISTIC;
+import org.ihtsdo.util.GrayCodeWalker;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MrcmBuilderTest {
+
+	private static final long PARENT = 950000000L;
+	private static final int SIBLINGS = 300;
+	private static final long[] TYPES = new long[] { 950000001L, 950000002L, 950000003L, 950000004L, 950000005L };
+
+	private Concept parent;
+
+	@Before
+	public void setUp() throws Exception {
+		// A parent with many children, each having up to three groups of up to three attributes of a handful of types
+		Random random = new Random(20150731L);
+		for (long type : TYPES) {
+			addRelationship(type, PARENT, RF2SchemaConstants.ISA_ID, 0);
+		}
+		for (int x = 1; x <= SIBLINGS; x++) {
+			long sibling = PARENT + 1000 + x;
+			addRelationship(sibling, PARENT, RF2SchemaConstants.ISA_ID, 0);
+			int groupCount = 1 + random.nextInt(3);
+			for (int group = 1; group <= groupCount; group++) {
+				int attributeCount = 1 + random.nextInt(3);
+				for (int y = 0; y < attributeCount; y++) {
+					addRelationship(sibling, TYPES[0], TYPES[random.nextInt(TYPES.length)], group);
+				}
+			}
+		}
+		parent = Concept.getConcept(PARENT, CHARACTERISTIC.INFERRED);
+	}
+
+	private static void addRelationship(long source, long destination, long type, int group) throws Exception {
+		String[] line = new String[] { "1", "20150731", "1", "900000000000207008", Long.toString(source), Long.toString(destination),
+				Integer.toString(group), Long.toString(type), "900000000000011006", "900000000000451002" };
+		new Relationship(line, CHARACTERISTIC.INFERRED, false);
+	}
+
+	@Test
+	public void testParallelMatchesSequential() throws Exception {
+		GroupShape.resetPopularities();
+		GroupsHash.resetPopularities();
+		new MrcmBuilder().determineMRCM(parent, Concept.DEPTH_NOT_SET, DefinitionStatus.ALL, CHARACTERISTIC.INFERRED, false);
+		Map<Long, Integer> sequentialShapes = GroupShape.getPopularities();
+		Map<String, Integer> sequentialHashes = GroupsHash.getPopularities();
+
+		GroupShape.resetPopularities();
+		GroupsHash.resetPopularities();
+		new MrcmBuilder(4).determineMRCM(parent, Concept.DEPTH_NOT_SET, DefinitionStatus.ALL, CHARACTERISTIC.INFERRED, true);
+
+		assertEquals(sequentialShapes, GroupShape.getPopularities());
+		assertEquals(sequentialHashes, GroupsHash.getPopularities());
+		// Every sibling (and type) has exactly one groups hash
+		int hashTotal = 0;
+		for (int popularity : sequentialHashes.values()) {
+			hashTotal += popularity;
+		}
+		assertEquals(SIBLINGS + TYPES.length, hashTotal);
+	}
+
+	@Test
+	public void testCombinationBudget() {
+		// Four attributes, each left out or included, give 16 combinations
+		long[][] contributions = new long[][] { { 0, 1 }, { 0, 2 }, { 0, 4 }, { 0, 8 } };
+		MrcmBuilder builder = new MrcmBuilder(1);
+		builder.setMaxCombinationsPerGroup(5);
+		GrayCodeWalker walker = new GrayCodeWalker(contributions);
+		int steps = 0;
+		while (builder.nextWithinBudget(walker)) {
+			steps++;
+		}
+		assertEquals(5, walker.getVisited());
+		assertTrue(steps < walker.getCombinations());
+		assertTrue(MrcmBuilder.isCutShort(walker));
+
+		// The default budget lets a group that size be walked to the end
+		walker = new GrayCodeWalker(contributions);
+		MrcmBuilder unlimited = new MrcmBuilder(1);
+		while (unlimited.nextWithinBudget(walker)) {
+		}
+		assertEquals(16, walker.getVisited());
+		assertFalse(MrcmBuilder.isCutShort(walker));
+	}
+
+}
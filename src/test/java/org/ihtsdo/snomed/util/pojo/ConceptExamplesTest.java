@@ -0,0 +1,36 @@
+package org.ihtsdo.snomed.util.pojo;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ConceptExamplesTest {
+
+	@Test
+	public void testKeepsEverythingUnderBudget() {
+		ConceptExamples examples = new ConceptExamples(1L);
+		for (long x = 0; x < ConceptExamples.MAX_EXAMPLES; x++) {
+			examples.add(new Concept(940000000L + x));
+		}
+		assertEquals(ConceptExamples.MAX_EXAMPLES, examples.getExamples().size());
+		assertEquals(Long.valueOf(940000000L), examples.getExamples().get(0).getSctId());
+	}
+
+	@Test
+	public void testSampleIsBoundedAndRepeatable() {
+		ConceptExamples first = new ConceptExamples(1L);
+		ConceptExamples second = new ConceptExamples(1L);
+		for (long x = 0; x < 100000; x++) {
+			first.add(new Concept(940000000L + x));
+			second.add(new Concept(940000000L + x));
+		}
+		List<Concept> sample = first.getExamples();
+		assertEquals(ConceptExamples.MAX_EXAMPLES, sample.size());
+		assertEquals(100000, first.getTotal());
+		assertEquals(sample, second.getExamples());
+		// With that many offered, the sample should not still be the first few seen
+		assertFalse(sample.contains(new Concept(940000000L)) && sample.contains(new Concept(940000001L)));
+	}
+}
@@ -0,0 +1,79 @@
+package org.ihtsdo.snomed.util.pojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.ihtsdo.snomed.util.rf2.schema.RF2SchemaConstants.CHARACTERISTIC;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GraphCacheTest {
+
+	private static final String RELEASE_DATE = "20150731";
+	private static final long[] CHECKSUMS = new long[] { 11L, 22L };
+	private static final long FINDING_SITE = 363698007L;
+
+	private File cacheFile;
+	private GraphCache cache;
+
+	@Before
+	public void setUp() throws IOException {
+		cacheFile = File.createTempFile("graphCache", ".bin");
+		cacheFile.deleteOnExit();
+		cache = new GraphCache(cacheFile);
+
+		// parent <- child, with the child having one attribute group, in both views
+		for (CHARACTERISTIC characteristic : new CHARACTERISTIC[] { CHARACTERISTIC.STATED, CHARACTERISTIC.INFERRED }) {
+			Concept parent = Concept.registerConcept("930000001", characteristic);
+			Concept child = Concept.registerConcept("930000002", characteristic);
+			Concept site = Concept.registerConcept("930000003", characteristic);
+			child.addParent(parent);
+			if (child.getGroups().isEmpty()) {
+				Relationship r = new Relationship(child, site, FINDING_SITE, 0);
+				r.isActive(true);
+				RelationshipGroup group = new RelationshipGroup(0);
+				group.addAttribute(r);
+				child.groups.add(group);
+			}
+		}
+		new Description(930000002L, "Child (disorder)");
+		cache.save(RELEASE_DATE, CHECKSUMS);
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		Concept before = Concept.getConcept(930000002L, CHARACTERISTIC.INFERRED);
+		assertTrue(cache.load(RELEASE_DATE, CHECKSUMS));
+
+		Concept restored = Concept.getConcept(930000002L, CHARACTERISTIC.INFERRED);
+		assertNotSame(before, restored);
+		assertEquals(1, restored.getParents().size());
+		assertEquals(Long.valueOf(930000001L), restored.getParents().iterator().next().getSctId());
+
+		List<RelationshipGroup> groups = restored.getGroups();
+		assertEquals(1, groups.size());
+		Relationship attribute = groups.get(0).getAttributes().iterator().next();
+		assertEquals(Long.valueOf(FINDING_SITE), attribute.getTypeId());
+		assertEquals(Long.valueOf(930000003L), attribute.getDestinationId());
+		assertTrue(restored.getParents().iterator().next().getDescendents(Concept.DEPTH_NOT_SET, false).contains(restored));
+		assertEquals("Child (disorder)", Description.getDescription(restored));
+	}
+
+	@Test
+	public void testChangedChecksumRejected() throws IOException {
+		Concept before = Concept.getConcept(930000002L, CHARACTERISTIC.STATED);
+		assertFalse(cache.load(RELEASE_DATE, new long[] { 11L, 23L }));
+		assertSame(before, Concept.getConcept(930000002L, CHARACTERISTIC.STATED));
+	}
+
+	@Test
+	public void testChangedReleaseDateRejected() throws IOException {
+		Concept before = Concept.getConcept(930000002L, CHARACTERISTIC.STATED);
+		assertFalse(cache.load("20160131", CHECKSUMS));
+		assertSame(before, Concept.getConcept(930000002L, CHARACTERISTIC.STATED));
+	}
+
+}
@@ -0,0 +1,94 @@
+package org.ihtsdo.snomed.util.pojo;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.ihtsdo.util.GrayCodeWalker;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GroupShapeTest {
+
+	private static final long FINDING_SITE = 363698007L;
+	private static final long ASSOCIATED_MORPHOLOGY = 116676008L;
+	private static final long CAUSATIVE_AGENT = 246075003L;
+
+	@Test
+	public void testSignatureIgnoresOrder() {
+		assertEquals(GroupShape.signature(FINDING_SITE, ASSOCIATED_MORPHOLOGY),
+				GroupShape.signature(ASSOCIATED_MORPHOLOGY, FINDING_SITE));
+		assertNotEquals(GroupShape.signature(FINDING_SITE, ASSOCIATED_MORPHOLOGY),
+				GroupShape.signature(FINDING_SITE, CAUSATIVE_AGENT));
+		// Repeated types make a different shape
+		assertNotEquals(GroupShape.signature(FINDING_SITE), GroupShape.signature(FINDING_SITE, FINDING_SITE));
+		assertEquals(GroupShape.EMPTY_SHAPE, GroupShape.signature());
+	}
+
+	@Test
+	public void testGroupShapes() {
+		Concept source = new Concept(920000001L);
+		Concept destination = new Concept(920000002L);
+		RelationshipGroup group = new RelationshipGroup(1);
+		group.addAttribute(new Relationship(source, destination, FINDING_SITE, 1));
+		group.addAttribute(new Relationship(source, destination, CAUSATIVE_AGENT, 1));
+		group.addAttribute(new Relationship(source, destination, ASSOCIATED_MORPHOLOGY, 1));
+
+		assertEquals(GroupShape.signature(FINDING_SITE, ASSOCIATED_MORPHOLOGY, CAUSATIVE_AGENT), group.getGroupBasicShape().getId());
+		// Every subset of the three distinct types is a different partial shape, starting from the empty one
+		GrayCodeWalker walker = group.getPartialShapeWalker();
+		Set<Long> partialShapes = new HashSet<>();
+		walker.next();
+		assertEquals(GroupShape.EMPTY_SHAPE, RelationshipGroup.getPartialShape(walker));
+		do {
+			partialShapes.add(RelationshipGroup.getPartialShape(walker));
+		} while (walker.next());
+		assertEquals(8, partialShapes.size());
+		assertTrue(partialShapes.contains(GroupShape.signature(FINDING_SITE, ASSOCIATED_MORPHOLOGY)));
+		assertEquals(GroupShape.EMPTY_SHAPE, new RelationshipGroup(2).getGroupAbstractShape(Set.of()));
+	}
+
+	@Test
+	public void testConcurrentPopularity() throws Exception {
+		long shapeId = GroupShape.signature(FINDING_SITE, CAUSATIVE_AGENT, CAUSATIVE_AGENT);
+		int threads = 4;
+		int incrementsPerThread = 10000;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> tasks = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				tasks.add(executor.submit(() -> {
+					for (int x = 0; x < incrementsPerThread; x++) {
+						GroupShape.get(shapeId).incrementPopularity(new Concept(930000000L + x));
+					}
+				}));
+			}
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		GroupShape shape = GroupShape.get(shapeId);
+		assertEquals(threads * incrementsPerThread, shape.getPopularity());
+		assertEquals(ConceptExamples.MAX_EXAMPLES, shape.examples.getExamples().size());
+	}
+
+	@Test
+	public void testRepeatedConceptOfferedOnce() {
+		GroupShape shape = GroupShape.get(GroupShape.signature(ASSOCIATED_MORPHOLOGY, CAUSATIVE_AGENT, CAUSATIVE_AGENT));
+		// As for a concept with two groups of this shape, then one with a single group
+		Concept twoGroups = new Concept(930000001L);
+		Concept oneGroup = new Concept(930000002L);
+		shape.incrementPopularity(List.of(twoGroups, twoGroups, oneGroup));
+		assertEquals(3, shape.getPopularity());
+		assertEquals(2, shape.examples.getTotal());
+		assertEquals(List.of(twoGroups, oneGroup), shape.examples.getExamples());
+	}
+}
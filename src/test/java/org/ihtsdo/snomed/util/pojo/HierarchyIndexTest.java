@@ -0,0 +1,131 @@
+package org.ihtsdo.snomed.util.pojo;
+
+import java.util.List;
+import java.util.Set;
+
+import org.ihtsdo.snomed.util.rf2.schema.RF2SchemaConstants.CHARACTERISTIC;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HierarchyIndexTest {
+
+	private Concept root;
+	private Concept left;
+	private Concept right;
+	private Concept diamond;
+	private Concept leaf;
+
+	@Before
+	public void setUp() {
+		// SNOMED root <- root <- left, right <- diamond <- leaf, with diamond having both left and right as parents
+		Concept snomedRoot = Concept.registerConcept(Long.toString(Concept.SNOMED_ROOT_CONCEPT), CHARACTERISTIC.INFERRED);
+		root = Concept.registerConcept("910000001", CHARACTERISTIC.INFERRED);
+		left = Concept.registerConcept("910000002", CHARACTERISTIC.INFERRED);
+		right = Concept.registerConcept("910000003", CHARACTERISTIC.INFERRED);
+		diamond = Concept.registerConcept("910000004", CHARACTERISTIC.INFERRED);
+		leaf = Concept.registerConcept("910000005", CHARACTERISTIC.INFERRED);
+		root.addParent(snomedRoot);
+		left.addParent(root);
+		right.addParent(root);
+		diamond.addParent(left);
+		diamond.addParent(right);
+		leaf.addParent(diamond);
+	}
+
+	@Test
+	public void testDescendants() {
+		Set<Concept> descendants = root.getDescendents(Concept.DEPTH_NOT_SET, false);
+		assertEquals(4, descendants.size());
+		assertTrue(descendants.contains(leaf));
+		assertEquals(2, left.getDescendents(Concept.DEPTH_NOT_SET, false).size());
+		assertTrue(leaf.getDescendents(Concept.DEPTH_NOT_SET, false).isEmpty());
+	}
+
+	@Test
+	public void testAncestors() {
+		Set<Concept> ancestors = leaf.getAncestors(Concept.DEPTH_NOT_SET);
+		assertEquals(5, ancestors.size());
+		assertFalse(ancestors.contains(leaf));
+		assertEquals(ancestors.size(), leaf.getAncestors(10).size());
+	}
+
+	@Test
+	public void testSubsumption() {
+		HierarchyIndex index = HierarchyIndex.get(CHARACTERISTIC.INFERRED);
+		assertTrue(index.isDescendant(leaf, root));
+		assertTrue(index.isDescendant(diamond, right));
+		assertFalse(index.isDescendant(left, right));
+		assertFalse(index.isDescendant(root, leaf));
+		assertFalse(index.isDescendant(leaf, leaf));
+	}
+
+	@Test
+	public void testIsDescendantOf() {
+		assertTrue(leaf.isDescendantOf(root));
+		assertTrue(leaf.isDescendantOf(910000002L));
+		assertFalse(right.isDescendantOf(left));
+		assertFalse(root.isDescendantOf(999999999L));
+		assertFalse(leaf.isDescendantOf((Concept) null));
+	}
+
+	@Test
+	public void testDeepestCommonAncestor() {
+		HierarchyIndex index = HierarchyIndex.get(CHARACTERISTIC.INFERRED);
+		assertEquals(1, index.getDepth(root));
+		assertEquals(2, index.getDepth(right));
+		assertEquals(3, index.getDepth(diamond));
+		assertEquals(4, index.getDepth(leaf));
+		assertEquals(root, index.getDeepestCommonAncestor(List.of(left, right)));
+		assertEquals(left, index.getDeepestCommonAncestor(List.of(left, leaf)));
+		// Both of diamond's parents are common to it and leaf, but diamond itself is deeper still
+		assertEquals(diamond, index.getDeepestCommonAncestor(List.of(leaf, diamond)));
+		assertEquals(root, index.getDeepestCommonAncestor(List.of(leaf, right, left)));
+		assertNull(index.getDeepestCommonAncestor(List.of()));
+	}
+
+	@Test
+	public void testDepths() {
+		// Held in the stated registry, away from the diamond: snomedRoot <- a <- b <- shortcut, with shortcut also directly below the root
+		Concept snomedRoot = Concept.registerConcept(Long.toString(Concept.SNOMED_ROOT_CONCEPT), CHARACTERISTIC.STATED);
+		Concept a = Concept.registerConcept("910000011", CHARACTERISTIC.STATED);
+		Concept b = Concept.registerConcept("910000012", CHARACTERISTIC.STATED);
+		Concept shortcut = Concept.registerConcept("910000013", CHARACTERISTIC.STATED);
+		Concept unrooted = Concept.registerConcept("910000014", CHARACTERISTIC.STATED);
+		a.addParent(snomedRoot);
+		b.addParent(a);
+		shortcut.addParent(b);
+		shortcut.addParent(snomedRoot);
+
+		assertEquals(0, snomedRoot.getDepth());
+		assertEquals(2, b.getDepth());
+		assertEquals(1, shortcut.getDepth());
+		assertEquals(Concept.DEPTH_NOT_SET, unrooted.getDepth());
+		assertEquals(Concept.DEPTH_NOT_SET, new Concept(910000015L).getDepth());
+	}
+
+	@Test
+	public void testInvalidatedByNewParent() {
+		HierarchyIndex before = HierarchyIndex.get(CHARACTERISTIC.INFERRED);
+		// Kept apart from the diamond, as the registry is shared with the other tests whatever order they run in
+		Concept newParent = Concept.registerConcept("910000006", CHARACTERISTIC.INFERRED);
+		Concept newChild = Concept.registerConcept("910000007", CHARACTERISTIC.INFERRED);
+		newChild.addParent(newParent);
+		HierarchyIndex after = HierarchyIndex.get(CHARACTERISTIC.INFERRED);
+		assertNotSame(before, after);
+		assertTrue(after.isDescendant(newChild, newParent));
+	}
+
+	@Test
+	public void testInvalidatedByNewConcept() {
+		HierarchyIndex before = HierarchyIndex.get(CHARACTERISTIC.INFERRED);
+		Concept newConcept = Concept.registerConcept("910000008", CHARACTERISTIC.INFERRED);
+		HierarchyIndex after = HierarchyIndex.get(CHARACTERISTIC.INFERRED);
+		assertNotSame(before, after);
+		// The new concept must have an ordinal of its own, rather than reading another concept's entries
+		assertSame(newConcept, after.getConcept(newConcept.getOrdinal()));
+		assertTrue(newConcept.getAncestors(Concept.DEPTH_NOT_SET).isEmpty());
+		assertFalse(newConcept.isDescendantOf(root));
+	}
+}
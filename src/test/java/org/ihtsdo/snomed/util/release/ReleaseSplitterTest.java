@@ -0,0 +1,166 @@
+package org.ihtsdo.snomed.util.release;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.ihtsdo.snomed.util.SnomedUtilException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReleaseSplitterTest {
+
+	private static final String FILE_NAME = "sct2_Relationship_Snapshot_INT_20150731.txt";
+	private static final String CONCEPT_FILE = "sct2_Concept_Snapshot_INT_20150731.txt";
+	private static final String ROWS = "id\tactive\r\n1\t1\r\n2\t1\r\n3\t1\r\n4\t1\r\n5\t1\r\n";
+
+	private ReleaseSplitter splitter;
+
+	@Before
+	public void setUp() throws IOException {
+		splitter = new ReleaseSplitter();
+		splitter.splitCount = 2;
+		File dir = Files.createTempDirectory("ReleaseSplitterTest").toFile();
+		for (int x = 1; x <= splitter.splitCount; x++) {
+			splitter.splitArchives.add(new File(dir, "release_" + x + ".zip"));
+		}
+	}
+
+	@Test
+	public void testRoundRobin() throws IOException {
+		split();
+		assertEquals(List.of("id\tactive", "1\t1", "3\t1", "5\t1"), readPiece(0));
+		assertEquals(List.of("id\tactive", "2\t1", "4\t1"), readPiece(1));
+	}
+
+	@Test
+	public void testRowsPerPiece() throws IOException {
+		splitter.rowsPerPiece = 2;
+		split();
+		assertEquals(List.of("id\tactive", "1\t1", "2\t1"), readPiece(0));
+		// The last piece takes whatever is left over
+		assertEquals(List.of("id\tactive", "3\t1", "4\t1", "5\t1"), readPiece(1));
+	}
+
+	@Test
+	public void testPartitionByKey() throws IOException {
+		splitter.partitionByKey = true;
+		String concepts = "id\teffectiveTime\tactive\tmoduleId\tdefinitionStatusId\r\n"
+				+ "100\t20150731\t1\t900000000000207008\t900000000000074008\r\n"
+				+ "200\t20150731\t1\t900000000000207008\t900000000000074008\r\n";
+		String relationships = "id\teffectiveTime\tactive\tmoduleId\tsourceId\tdestinationId\trelationshipGroup\ttypeId\tcharacteristicTypeId\tmodifierId\r\n"
+				+ "1\t20150731\t1\t900000000000207008\t200\t300\t0\t116680003\t900000000000011006\t900000000000451002\r\n"
+				+ "2\t20150731\t1\t900000000000207008\t100\t300\t0\t116680003\t900000000000011006\t900000000000451002\r\n";
+		splitter.openSplitArchives();
+		splitter.splitFile(CONCEPT_FILE, new ByteArrayInputStream(concepts.getBytes(StandardCharsets.UTF_8)));
+		splitter.splitFile(FILE_NAME, new ByteArrayInputStream(relationships.getBytes(StandardCharsets.UTF_8)));
+		splitter.splitFile("Readme_en_20150731.txt", new ByteArrayInputStream("Readme\r\nText\r\n".getBytes(StandardCharsets.UTF_8)));
+		splitter.closeSplitArchives();
+
+		// Every piece has the headers, and each concept's rows are all in the piece its id hashes to
+		for (String sctId : new String[] { "100", "200" }) {
+			int piece = splitter.getPieceForKey(sctId);
+			assertTrue(readPiece(piece, CONCEPT_FILE).stream().anyMatch(row -> row.startsWith(sctId + "\t")));
+			assertTrue(readPiece(piece, FILE_NAME).stream().anyMatch(row -> row.contains("\t" + sctId + "\t300\t")));
+		}
+		assertEquals(4, readPiece(0, CONCEPT_FILE).size() + readPiece(1, CONCEPT_FILE).size());
+		// Anything that isn't RF2 goes to every piece
+		assertEquals(List.of("Readme", "Text"), readPiece(1, "Readme_en_20150731.txt"));
+	}
+
+	@Test
+	public void testPartitionByKeyChecksHeader() throws IOException {
+		splitter.partitionByKey = true;
+		splitter.openSplitArchives();
+		try {
+			// Named as relationships, but without a sourceId column to partition on
+			splitter.splitFile(FILE_NAME, new ByteArrayInputStream(ROWS.getBytes(StandardCharsets.UTF_8)));
+			fail("Expected the header to be rejected");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("sourceId"));
+		} finally {
+			splitter.closeSplitArchives();
+		}
+	}
+
+	@Test
+	public void testParallel() throws IOException, SnomedUtilException {
+		splitter.archive = new File(splitter.splitArchives.get(0).getParentFile(), "release.zip");
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(splitter.archive))) {
+			for (String fileName : new String[] { "Terminology/" + FILE_NAME, "Terminology/" + CONCEPT_FILE }) {
+				out.putNextEntry(new ZipEntry(fileName));
+				out.write(ROWS.getBytes(StandardCharsets.UTF_8));
+				out.closeEntry();
+			}
+		}
+		splitter.splitArchiveInParallel();
+		for (String fileName : new String[] { "Terminology/" + FILE_NAME, "Terminology/" + CONCEPT_FILE }) {
+			assertEquals(List.of("id\tactive", "1\t1", "3\t1", "5\t1"), readPiece(0, fileName));
+			assertEquals(List.of("id\tactive", "2\t1", "4\t1"), readPiece(1, fileName));
+		}
+	}
+
+	@Test
+	public void testParallelFailureRemovesPieces() throws IOException {
+		splitter.partitionByKey = true;
+		splitter.archive = new File(splitter.splitArchives.get(0).getParentFile(), "release.zip");
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(splitter.archive))) {
+			// The relationships have no sourceId column, so fail while the readme is being copied
+			for (String fileName : new String[] { "Terminology/" + FILE_NAME, "Readme_en_20150731.txt" }) {
+				out.putNextEntry(new ZipEntry(fileName));
+				out.write(ROWS.getBytes(StandardCharsets.UTF_8));
+				out.closeEntry();
+			}
+		}
+		try {
+			splitter.splitArchiveInParallel();
+			fail("Expected the split to fail");
+		} catch (SnomedUtilException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		for (File piece : splitter.splitArchives) {
+			assertFalse(piece.exists());
+		}
+	}
+
+	@Test
+	public void testEmptyFile() throws IOException {
+		splitter.openSplitArchives();
+		splitter.splitFile(FILE_NAME, new ByteArrayInputStream(new byte[0]));
+		splitter.closeSplitArchives();
+		assertTrue(readPiece(0).isEmpty());
+		assertTrue(readPiece(1).isEmpty());
+	}
+
+	private void split() throws IOException {
+		splitter.openSplitArchives();
+		splitter.splitFile(FILE_NAME, new ByteArrayInputStream(ROWS.getBytes(StandardCharsets.UTF_8)));
+		splitter.closeSplitArchives();
+	}
+
+	private List<String> readPiece(int piece) throws IOException {
+		return readPiece(piece, FILE_NAME);
+	}
+
+	private List<String> readPiece(int piece, String fileName) throws IOException {
+		try (ZipFile zip = new ZipFile(splitter.splitArchives.get(piece))) {
+			ZipEntry entry = zip.getEntry(fileName);
+			assertNotNull(entry);
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8))) {
+				return reader.lines().collect(Collectors.toList());
+			}
+		}
+	}
+}
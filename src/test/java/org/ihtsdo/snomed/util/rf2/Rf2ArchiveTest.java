@@ -0,0 +1,70 @@
+package org.ihtsdo.snomed.util.rf2;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.ihtsdo.snomed.util.rf2.schema.ComponentType;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class Rf2ArchiveTest {
+
+	private static final String RELEASE_DIR = "SnomedCT_RF2Release_INT_20150731/";
+	private static final String STATED_SNAPSHOT = RELEASE_DIR + "Snapshot/Terminology/sct2_StatedRelationship_Snapshot_INT_20150731.txt";
+	private static final String STATED_DELTA = RELEASE_DIR + "Delta/Terminology/sct2_StatedRelationship_Delta_INT_20150731.txt";
+	private static final String INFERRED_SNAPSHOT = RELEASE_DIR + "Snapshot/Terminology/sct2_Relationship_Snapshot_INT_20150731.txt";
+
+	private File zip;
+
+	@Before
+	public void setUp() throws IOException {
+		zip = File.createTempFile("SnomedCT_RF2Release_INT_20150731", ".zip");
+		zip.deleteOnExit();
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+			addEntry(out, RELEASE_DIR + "Readme_en_20150731.txt", "Readme");
+			addEntry(out, STATED_DELTA, "id\tactive\r\n");
+			addEntry(out, STATED_SNAPSHOT, "id\tactive\r\n100022\t1\r\n");
+			addEntry(out, INFERRED_SNAPSHOT, "id\tactive\r\n");
+		}
+	}
+
+	@Test
+	public void testFindEntryName() throws IOException {
+		try (Rf2Archive archive = new Rf2Archive(zip)) {
+			assertEquals(STATED_SNAPSHOT, archive.findEntryName(ComponentType.STATED_RELATIONSHIP, Rf2Archive.SNAPSHOT));
+			assertEquals(STATED_DELTA, archive.findEntryName(ComponentType.STATED_RELATIONSHIP, Rf2Archive.DELTA));
+			assertEquals(INFERRED_SNAPSHOT, archive.findEntryName(ComponentType.RELATIONSHIP, Rf2Archive.SNAPSHOT));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testMissingEntry() throws IOException {
+		try (Rf2Archive archive = new Rf2Archive(zip)) {
+			archive.findEntryName(ComponentType.CONCEPT, Rf2Archive.SNAPSHOT);
+		}
+	}
+
+	@Test
+	public void testOpenScanner() throws IOException {
+		try (Rf2Archive archive = new Rf2Archive(zip);
+				Rf2LineScanner line = archive.openScanner(STATED_SNAPSHOT)) {
+			assertTrue(line.next());
+			assertTrue(line.next());
+			assertEquals(100022L, line.getLong(0));
+			assertTrue(line.fieldEquals(1, "1"));
+			assertFalse(line.next());
+		}
+	}
+
+	private void addEntry(ZipOutputStream out, String name, String content) throws IOException {
+		out.putNextEntry(new ZipEntry(name));
+		out.write(content.getBytes(StandardCharsets.UTF_8));
+		out.closeEntry();
+	}
+}
@@ -0,0 +1,147 @@
+package org.ihtsdo.snomed.util.rf2;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ihtsdo.snomed.util.rf2.schema.RF2SchemaConstants;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class Rf2LineScannerTest {
+
+	private static final String HEADER = "id\teffectiveTime\tactive\tmoduleId\tsourceId\tdestinationId\trelationshipGroup\ttypeId\tcharacteristicTypeId\tmodifierId";
+
+	private File rf2File;
+
+	@Before
+	public void setUp() throws IOException {
+		rf2File = File.createTempFile("sct2_Relationship_Snapshot_INT_20150731", ".txt");
+		rf2File.deleteOnExit();
+	}
+
+	@Test
+	public void testReadsFields() throws IOException {
+		write(HEADER + "\r\n"
+				+ "100022\t20020131\t1\t900000000000207008\t100000000\t102272007\t0\t116680003\t900000000000011006\t900000000000451002\r\n"
+				+ "100023\t20020131\t0\t900000000000207008\t100000000\t100000000\t2\t116680003\t900000000000011006\t900000000000451002\r\n");
+
+		try (Rf2LineScanner line = new Rf2LineScanner(rf2File)) {
+			assertTrue(line.next());
+			assertEquals(HEADER, line.getLine());
+			assertFalse(line.fieldEquals(RF2SchemaConstants.REL_IDX_ACTIVE, "1"));
+
+			assertTrue(line.next());
+			assertEquals(10, line.getFieldCount());
+			assertEquals("100022", line.getString(0));
+			assertTrue(line.fieldEquals(2, "1"));
+			assertEquals(102272007L, line.getLong(5));
+			assertEquals(116680003L, line.getLong(7));
+			assertEquals(0, line.getInt(6));
+			assertEquals("900000000000451002", line.getString(9));
+
+			assertTrue(line.next());
+			assertTrue(line.fieldEquals(2, "0"));
+			assertEquals(2, line.getInt(6));
+
+			assertFalse(line.next());
+		}
+	}
+
+	@Test
+	public void testMatchesSplit() throws IOException {
+		String content = "a\t\tc\n\tb\nlast\t\t\n\nSj\u00f6gren\u2019s\tterm";
+		write(content);
+		List<String[]> expected = new ArrayList<>();
+		for (String row : content.split("\n", -1)) {
+			expected.add(row.split("\t"));
+		}
+
+		List<String[]> actual = new ArrayList<>();
+		try (Rf2LineScanner line = new Rf2LineScanner(rf2File)) {
+			while (line.next()) {
+				actual.add(line.getFields());
+			}
+		}
+
+		assertEquals(expected.size(), actual.size());
+		for (int x = 0; x < expected.size(); x++) {
+			assertArrayEquals(expected.get(x), actual.get(x));
+		}
+	}
+
+	@Test
+	public void testLinesSpanningWindows() throws IOException {
+		StringBuilder content = new StringBuilder();
+		for (int x = 0; x < 1000; x++) {
+			content.append(x).append("\t").append(x * 7).append("\r\n");
+		}
+		write(content.toString());
+
+		try (Rf2LineScanner line = new Rf2LineScanner(rf2File, 37)) {
+			int lineCount = 0;
+			while (line.next()) {
+				assertEquals(lineCount, line.getLong(0));
+				assertEquals(lineCount * 7, line.getLong(1));
+				lineCount++;
+			}
+			assertEquals(1000, lineCount);
+		}
+	}
+
+	@Test
+	public void testReadsStream() throws IOException {
+		StringBuilder content = new StringBuilder();
+		for (int x = 0; x < 1000; x++) {
+			content.append(x).append("\t").append("x".repeat(x % 50)).append("\r\n");
+		}
+
+		InputStream in = new ByteArrayInputStream(content.toString().getBytes(StandardCharsets.UTF_8));
+		try (Rf2LineScanner line = new Rf2LineScanner(in, "test stream", 16)) {
+			int lineCount = 0;
+			while (line.next()) {
+				assertEquals(lineCount, line.getInt(0));
+				assertEquals(lineCount % 50, line.getString(1).length());
+				lineCount++;
+			}
+			assertEquals(1000, lineCount);
+		}
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testNonNumericField() throws IOException {
+		write(HEADER + "\r\n");
+		try (Rf2LineScanner line = new Rf2LineScanner(rf2File)) {
+			line.next();
+			line.getLong(0);
+		}
+	}
+
+	@Test
+	public void testLongOverflow() throws IOException {
+		write(Long.MAX_VALUE + "\t9223372036854775808\t99999999999999999999\r\n");
+		try (Rf2LineScanner line = new Rf2LineScanner(rf2File)) {
+			line.next();
+			assertEquals(Long.MAX_VALUE, line.getLong(0));
+			for (int fieldIdx = 1; fieldIdx < 3; fieldIdx++) {
+				try {
+					line.getLong(fieldIdx);
+					fail("Expected field " + fieldIdx + " to overflow");
+				} catch (NumberFormatException e) {
+					// expected
+				}
+			}
+		}
+	}
+
+	private void write(String content) throws IOException {
+		Files.write(rf2File.toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -31,6 +31,14 @@ public class SchemaFactoryTest {
 		assertRelOwlRefsetFields(fields);
 	}
 	
+	@Test
+	public void testKeyFieldIndex() throws Exception {
+		assertEquals(0, schemaFactory.createSchemaBean("sct2_Concept_Snapshot_INT_20150731.txt").getKeyFieldIndex());
+		assertEquals(4, schemaFactory.createSchemaBean("sct2_Description_Snapshot-en_INT_20150731.txt").getKeyFieldIndex());
+		assertEquals(4, schemaFactory.createSchemaBean("sct2_StatedRelationship_Snapshot_INT_20150731.txt").getKeyFieldIndex());
+		assertEquals(5, schemaFactory.createSchemaBean("der2_cRefset_LanguageSnapshot-en_INT_20150731.txt").getKeyFieldIndex());
+	}
+
 	@Test
 	public void testCreateSchemaBeanForOwlAxiomRefset() throws Exception {
 		String filename = "rel2_sRefset_OWLAxiomDelta_INT_20180731.txt";
@@ -0,0 +1,120 @@
+package org.ihtsdo.snomed.util.rf2.srsi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RelationshipProcessorTest {
+
+	private static final String HEADER = "id\teffectiveTime\tactive\tmoduleId\tsourceId\tdestinationId\trelationshipGroup\ttypeId\tcharacteristicTypeId\tmodifierId";
+	private static final long ROOT = 138875005L;
+	private static final long ISA = 116680003L;
+	private static final int TYPES = 4;
+	private static final int VALUES = 60;
+	private static final int SOURCES = 100;
+
+	private File dir;
+	private File statedFile;
+	private File inferredFile;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("RelationshipProcessorTest").toFile();
+		dir.deleteOnExit();
+		statedFile = new File(dir, "sct2_StatedRelationship_Snapshot_INT_20150131.txt");
+		inferredFile = new File(dir, "sct2_Relationship_Snapshot_INT_20150131.txt");
+		writeRelease();
+	}
+
+	/**
+	 * Stated and inferred views of the same hierarchy, where the inferred view has moved some attributes to another
+	 * group, or refined their type or destination, so that the stated ones need replacements found
+	 */
+	private void writeRelease() throws IOException {
+		Random random = new Random(20150731L);
+		List<long[]> isA = new ArrayList<>();
+		isA.add(new long[] { ISA, ROOT });
+		for (int x = 0; x < TYPES; x++) {
+			isA.add(new long[] { 100000400L + x, ROOT });
+			isA.add(new long[] { 100000410L + x, 100000400L + x });
+		}
+		List<List<Long>> children = new ArrayList<>();
+		for (int x = 0; x < VALUES; x++) {
+			children.add(new ArrayList<>());
+			long parent = ROOT;
+			if (x >= 5) {
+				int parentIdx = random.nextInt(x);
+				parent = 100000000L + parentIdx;
+				children.get(parentIdx).add(100000000L + x);
+			}
+			isA.add(new long[] { 100000000L + x, parent });
+		}
+
+		try (PrintWriter stated = new PrintWriter(statedFile, "UTF-8"); PrintWriter inferred = new PrintWriter(inferredFile, "UTF-8")) {
+			stated.print(HEADER + "\r\n");
+			inferred.print(HEADER + "\r\n");
+			long id = 1;
+			for (long[] pair : isA) {
+				writeRow(stated, id, pair[0], pair[1], 0, ISA);
+				writeRow(inferred, id++, pair[0], pair[1], 0, ISA);
+			}
+			for (int x = 0; x < SOURCES; x++) {
+				long source = 200000000L + x;
+				writeRow(stated, id, source, ROOT, 0, ISA);
+				writeRow(inferred, id++, source, ROOT, 0, ISA);
+				int attributeCount = 1 + random.nextInt(4);
+				for (int y = 0; y < attributeCount; y++) {
+					int group = random.nextInt(3);
+					int typeIdx = random.nextInt(TYPES);
+					int valueIdx = random.nextInt(VALUES);
+					writeRow(stated, id, source, 100000000L + valueIdx, group, 100000400L + typeIdx);
+
+					long destination = 100000000L + valueIdx;
+					long type = 100000400L + typeIdx;
+					int change = random.nextInt(10);
+					if (change < 2) {
+						group++;
+					} else if (change < 4 && !children.get(valueIdx).isEmpty()) {
+						destination = children.get(valueIdx).get(0);
+					} else if (change == 4) {
+						type = 100000410L + typeIdx;
+					}
+					writeRow(inferred, id++, source, destination, group, type);
+				}
+			}
+		}
+	}
+
+	private void writeRow(PrintWriter out, long id, long source, long destination, int group, long type) {
+		out.print(id + "\t20150131\t1\t900000000000207008\t" + source + "\t" + destination + "\t" + group + "\t" + type
+				+ "\t900000000000010007\t900000000000451002\r\n");
+	}
+
+	@Test
+	public void testParallelMatchesSequential() throws Exception {
+		byte[] sequential = process("sequential_20150731.txt", 0);
+		byte[] parallel = process("parallel_20150731.txt", 4);
+		assertTrue("Expected some relationships to be replaced", new String(sequential, "UTF-8").split("\r\n").length > 1);
+		assertArrayEquals(sequential, parallel);
+	}
+
+	private byte[] process(String outputFileName, int replacementThreads) throws Exception {
+		File outputFile = new File(dir, outputFileName);
+		outputFile.deleteOnExit();
+		// Each run must start from an empty graph, as the concepts are held statically
+		Concept.clearAll();
+		RelationshipProcessor processor = new RelationshipProcessor(statedFile.getPath(), inferredFile.getPath(), "none", outputFile.getPath());
+		processor.process("20150731", replacementThreads);
+		return Files.readAllBytes(outputFile.toPath());
+	}
+
+}
@@ -0,0 +1,50 @@
+package org.ihtsdo.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FileAppendersTest {
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = new File(Files.createTempDirectory("FileAppendersTest").toFile(), "reports/report.csv");
+		file.deleteOnExit();
+	}
+
+	@Test
+	public void testAppendAndClose() throws IOException {
+		GlobalUtils.outputToFile(file.getPath(), "first");
+		GlobalUtils.outputToFile(file.getPath(), new String[] { "a", "b" }, ",", true);
+		// Created straight away, with the lines buffered until flushed
+		assertTrue(file.exists());
+		FileAppenders.close(file.getPath());
+		assertEquals(List.of("first", "\"a\",\"b\""), Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+
+		// Reopened, appending to what's already there
+		GlobalUtils.outputToFile(file.getPath(), List.of("second", "third"));
+		FileAppenders.flushAll();
+		assertEquals(List.of("first", "\"a\",\"b\"", "second", "third"), Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+		FileAppenders.close(file.getPath());
+	}
+
+	@Test
+	public void testFlushedOnceFull() throws IOException {
+		String line = "x".repeat(1000);
+		int lines = FileAppenders.FLUSH_SIZE / (line.length() + 2) + 1;
+		for (int x = 0; x < lines; x++) {
+			FileAppenders.append(file.getPath(), line + GlobalUtils.LINE_DELIMITER);
+		}
+		assertEquals(lines, Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size());
+		FileAppenders.close(file.getPath());
+	}
+}
@@ -0,0 +1,56 @@
+package org.ihtsdo.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GrayCodeWalkerTest {
+
+	@Test
+	public void testVisitsEveryCombinationOnce() {
+		// Mixed numbers of states, including a position pruned to a single state
+		long[][] contributions = new long[][] { { 0, 1, 2 }, { 0, 10 }, { 5 }, { 0, 100, 200 } };
+		GrayCodeWalker walker = new GrayCodeWalker(contributions);
+		Set<String> seen = new HashSet<>();
+		int[] previous = null;
+		while (walker.next()) {
+			int[] states = new int[walker.size()];
+			long expectedSum = 0;
+			for (int x = 0; x < states.length; x++) {
+				states[x] = walker.getState(x);
+				expectedSum += contributions[x][states[x]];
+			}
+			assertTrue(seen.add(Arrays.toString(states)));
+			assertEquals(expectedSum, walker.getSum());
+			if (previous != null) {
+				// Only one position moves, by one state
+				int changes = 0;
+				for (int x = 0; x < states.length; x++) {
+					changes += Math.abs(states[x] - previous[x]);
+				}
+				assertEquals(1, changes);
+			}
+			previous = states;
+		}
+		assertEquals(18, seen.size());
+		assertEquals(18, walker.getCombinations());
+		assertEquals(18, walker.getVisited());
+		assertTrue(walker.isFinished());
+		assertFalse(walker.next());
+	}
+
+	@Test
+	public void testStateCounts() {
+		GrayCodeWalker walker = new GrayCodeWalker(new long[][] { { 0, 1 }, { 0, 1 } });
+		assertTrue(walker.next());
+		assertEquals(2, walker.countInState(0));
+		assertTrue(walker.next());
+		assertEquals(1, walker.countInState(1));
+		assertEquals(Set.of(0), walker.getPositionsInState(1));
+		assertEquals(0, walker.countInState(5));
+	}
+}
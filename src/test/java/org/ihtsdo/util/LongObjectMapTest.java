@@ -0,0 +1,85 @@
+package org.ihtsdo.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LongObjectMapTest {
+
+	private LongObjectMap<String> map;
+
+	@Before
+	public void setUp() {
+		map = new LongObjectMap<>(4);
+	}
+
+	@Test
+	public void testPutAndGet() {
+		assertNull(map.put(138875005L, "root"));
+		assertEquals("root", map.put(138875005L, "SNOMED CT Concept"));
+		assertEquals("SNOMED CT Concept", map.get(138875005L));
+		assertTrue(map.containsKey(138875005L));
+		assertFalse(map.containsKey(116680003L));
+		assertNull(map.get(116680003L));
+		assertEquals(1, map.size());
+	}
+
+	@Test
+	public void testZeroKey() {
+		assertFalse(map.containsKey(0L));
+		map.put(0L, "zero");
+		assertTrue(map.containsKey(0L));
+		assertEquals("zero", map.get(0L));
+		assertEquals(1, map.size());
+		assertTrue(map.values().contains("zero"));
+	}
+
+	@Test
+	public void testClear() {
+		map.put(0L, "zero");
+		map.put(138875005L, "root");
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertNull(map.get(0L));
+		assertFalse(map.containsKey(138875005L));
+		assertNull(map.put(138875005L, "root"));
+		assertEquals(1, map.size());
+	}
+
+	@Test
+	public void testGrowsToMatchHashMap() {
+		Map<Long, String> expected = new HashMap<>();
+		Random random = new Random(20150731L);
+		for (int x = 0; x < 50000; x++) {
+			long sctId = Math.abs(random.nextLong() % 1000000000000L);
+			expected.put(sctId, Long.toString(sctId));
+			map.put(sctId, Long.toString(sctId));
+		}
+
+		assertEquals(expected.size(), map.size());
+		for (Map.Entry<Long, String> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), map.get(entry.getKey()));
+		}
+
+		Set<String> values = new HashSet<>(map.values());
+		assertEquals(new HashSet<>(expected.values()), values);
+		assertEquals(expected.size(), map.values().size());
+	}
+
+	@Test
+	public void testSmallerThanHashMap() {
+		for (long sctId = 100000000L; sctId < 100100000L; sctId++) {
+			map.put(sctId, "");
+		}
+		assertTrue(map.estimateMemoryBytes() < LongObjectMap.estimateHashMapBytes(map.size()));
+		assertTrue(map.describeMemory("Test").startsWith("Test: 100000 entries held in "));
+	}
+
+}